@@ -0,0 +1,261 @@
+package com.digitalctrl.jysk.core.workflow;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.adapter.AdapterFactory;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+
+import com.adobe.cq.dam.cfm.ContentElement;
+import com.adobe.cq.dam.cfm.ContentFragment;
+import com.adobe.cq.dam.cfm.ElementTemplate;
+import com.adobe.cq.dam.cfm.FragmentData;
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+import com.adobe.cq.dam.cfm.VariationDef;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.digitalctrl.jysk.core.workflow.impl.ImporterFixtures;
+
+/**
+ * Adapts resources of an {@link InMemoryRepository} to the DAM and content fragment API the same way AEM stores
+ * them: assets with their renditions below jcr:content/renditions, and fragments with the master values on
+ * jcr:content/data/master and the metadata on jcr:content/metadata. The adapters only answer the calls the import
+ * path makes and don't support variations.
+ */
+final class ImportLoadFixtures implements AdapterFactory {
+
+	static final String DAM_ASSET = "dam:Asset";
+	static final String FRAGMENT_TEMPLATE = "cq:Template";
+
+	private static final String PN_CONTENT_FRAGMENT = "contentFragment";
+	private static final String MASTER_PATH = JcrConstants.JCR_CONTENT + "/data/master";
+	private static final String METADATA_PATH = JcrConstants.JCR_CONTENT + "/" + DamConstants.METADATA_FOLDER;
+	private static final String RENDITIONS_PATH = JcrConstants.JCR_CONTENT + "/" + DamConstants.RENDITIONS_FOLDER;
+
+	private final List<ElementTemplate> modelElements = new ArrayList<>();
+
+	ImportLoadFixtures() {
+		Iterator<ElementTemplate> elements = ImporterFixtures.createModel().getElements();
+		while(elements.hasNext()) {
+			modelElements.add(elements.next());
+		}
+	}
+
+	/**
+	 * Creates an asset holding the given xml as its original rendition, uncommitted.
+	 */
+	static void createXmlAsset(ResourceResolver resourceResolver, String path, byte[] xml) {
+		Resource folder = resourceResolver.getResource(ResourceUtil.getParent(path));
+		InMemoryRepository.write(folder, ResourceUtil.getName(path)).put(JcrConstants.JCR_PRIMARYTYPE, DAM_ASSET);
+		Resource asset = resourceResolver.getResource(path);
+		InMemoryRepository.write(asset, JcrConstants.JCR_CONTENT).put(JcrConstants.JCR_PRIMARYTYPE, "dam:AssetContent");
+		InMemoryRepository.write(asset, RENDITIONS_PATH + "/" + DamConstants.ORIGINAL_FILE).put(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_FILE);
+		Map<String, Object> content = InMemoryRepository.write(asset, RENDITIONS_PATH + "/" + DamConstants.ORIGINAL_FILE + "/" + JcrConstants.JCR_CONTENT);
+		content.put(JcrConstants.JCR_MIMETYPE, "application/xml");
+		content.put(JcrConstants.JCR_DATA, xml);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <AdapterType> AdapterType getAdapter(Object adaptable, Class<AdapterType> type) {
+		Resource resource = (Resource) adaptable;
+		Object primaryType = resource.getValueMap().get(JcrConstants.JCR_PRIMARYTYPE);
+		if(type == FragmentTemplate.class && FRAGMENT_TEMPLATE.equals(primaryType)) {
+			return (AdapterType) createTemplate();
+		}
+		if(!DAM_ASSET.equals(primaryType)) {
+			return type == Rendition.class && isRendition(resource) ? (AdapterType) createRendition(resource) : null;
+		}
+		Map<String, Object> content = InMemoryRepository.read(resource, JcrConstants.JCR_CONTENT);
+		boolean fragment = content != null && Boolean.TRUE.equals(content.get(PN_CONTENT_FRAGMENT));
+		if(type == ContentFragment.class && fragment) {
+			return (AdapterType) createFragment(resource);
+		}
+		if(type == Asset.class && !fragment) {
+			return (AdapterType) createAsset(resource);
+		}
+		return null;
+	}
+
+	private static boolean isRendition(Resource resource) {
+		Resource parent = resource.getParent();
+		return parent != null && DamConstants.RENDITIONS_FOLDER.equals(parent.getName());
+	}
+
+	private FragmentTemplate createTemplate() {
+		return stub(FragmentTemplate.class, (method, args) -> {
+			switch(method) {
+			case "getElements":
+				return modelElements.iterator();
+			case "getTitle":
+				return "JYSK Product";
+			case "createFragment":
+				return createFragment((Resource) args[0], (String) args[1], (String) args[2]);
+			default:
+				return null;
+			}
+		});
+	}
+
+	// Writes the nodes of a new fragment like the template does, leaving them uncommitted
+	private ContentFragment createFragment(Resource parent, String name, String title) {
+		InMemoryRepository.write(parent, name).put(JcrConstants.JCR_PRIMARYTYPE, DAM_ASSET);
+		Resource fragment = parent.getChild(name);
+		Map<String, Object> content = InMemoryRepository.write(fragment, JcrConstants.JCR_CONTENT);
+		content.put(JcrConstants.JCR_PRIMARYTYPE, "dam:AssetContent");
+		content.put(PN_CONTENT_FRAGMENT, Boolean.TRUE);
+		content.put(JcrConstants.JCR_TITLE, title);
+		InMemoryRepository.write(fragment, MASTER_PATH);
+		InMemoryRepository.write(fragment, METADATA_PATH);
+		return createFragment(fragment);
+	}
+
+	private ContentFragment createFragment(Resource fragment) {
+		Map<String, ContentElement> elements = new HashMap<>();
+		for(ElementTemplate modelElement : modelElements) {
+			elements.put(modelElement.getName(), createElement(fragment, modelElement.getName()));
+		}
+		return stub(ContentFragment.class, (method, args) -> {
+			switch(method) {
+			case "getName":
+				return fragment.getName();
+			case "getTitle":
+				return InMemoryRepository.read(fragment, JcrConstants.JCR_CONTENT).get(JcrConstants.JCR_TITLE);
+			case "getElement":
+				return elements.get(args[0]);
+			case "hasElement":
+				return elements.containsKey(args[0]);
+			case "getMetaData": {
+				Map<String, Object> metadata = InMemoryRepository.read(fragment, METADATA_PATH);
+				return metadata == null ? Collections.emptyMap() : Collections.unmodifiableMap(metadata);
+			}
+			case "setMetaData":
+				InMemoryRepository.write(fragment, METADATA_PATH).put((String) args[0], args[1]);
+				return null;
+			case "listAllVariations":
+				return Collections.<VariationDef> emptyIterator();
+			default:
+				throw new UnsupportedOperationException(method);
+			}
+		});
+	}
+
+	private static ContentElement createElement(Resource fragment, String name) {
+		return stub(ContentElement.class, (method, args) -> {
+			switch(method) {
+			case "getName":
+				return name;
+			case "getValue": {
+				Map<String, Object> master = InMemoryRepository.read(fragment, MASTER_PATH);
+				return createData(master == null ? null : master.get(name));
+			}
+			case "setValue":
+				InMemoryRepository.write(fragment, MASTER_PATH).put(name, ((FragmentData) args[0]).getValue());
+				return null;
+			case "getContentType":
+				return "text/plain";
+			case "getVariation":
+				return null;
+			default:
+				throw new UnsupportedOperationException(method);
+			}
+		});
+	}
+
+	private static FragmentData createData(Object initialValue) {
+		Object[] value = { initialValue };
+		return stub(FragmentData.class, (method, args) -> {
+			switch(method) {
+			case "getValue":
+				return value[0];
+			case "setValue":
+				value[0] = args[0];
+				return null;
+			default:
+				throw new UnsupportedOperationException(method);
+			}
+		});
+	}
+
+	private Asset createAsset(Resource asset) {
+		return stub(Asset.class, (method, args) -> {
+			switch(method) {
+			case "getPath":
+				return asset.getPath();
+			case "getName":
+				return asset.getName();
+			case "getRenditions": {
+				List<Rendition> renditions = new ArrayList<>();
+				Resource renditionsFolder = asset.getChild(RENDITIONS_PATH);
+				if(renditionsFolder != null) {
+					for(Resource rendition : renditionsFolder.getChildren()) {
+						renditions.add(createRendition(rendition));
+					}
+				}
+				return renditions;
+			}
+			case "getOriginal":
+			case "getRendition": {
+				Resource rendition = asset.getChild(RENDITIONS_PATH + "/" + (args == null ? DamConstants.ORIGINAL_FILE : args[0]));
+				return rendition == null ? null : createRendition(rendition);
+			}
+			default:
+				throw new UnsupportedOperationException(method);
+			}
+		});
+	}
+
+	private Rendition createRendition(Resource rendition) {
+		return stub(Rendition.class, (method, args) -> {
+			Map<String, Object> content = InMemoryRepository.read(rendition, JcrConstants.JCR_CONTENT);
+			switch(method) {
+			case "getPath":
+				return rendition.getPath();
+			case "getName":
+				return rendition.getName();
+			case "getMimeType":
+				return content.get(JcrConstants.JCR_MIMETYPE);
+			case "getSize":
+				return (long) ((byte[]) content.get(JcrConstants.JCR_DATA)).length;
+			case "getStream":
+				return new ByteArrayInputStream((byte[]) content.get(JcrConstants.JCR_DATA));
+			case "getAsset":
+				return createAsset(rendition.getParent().getParent().getParent());
+			default:
+				throw new UnsupportedOperationException(method);
+			}
+		});
+	}
+
+	@FunctionalInterface
+	private interface StubBehaviour {
+		Object invoke(String method, Object[] args);
+	}
+
+	private static <T> T stub(Class<T> type, StubBehaviour behaviour) {
+		return type.cast(Proxy.newProxyInstance(ImportLoadFixtures.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					if(method.getDeclaringClass() != Object.class) {
+						return behaviour.invoke(method.getName(), args);
+					}
+					switch(method.getName()) {
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					default:
+						return type.getSimpleName();
+					}
+				}));
+	}
+}
@@ -0,0 +1,285 @@
+package com.digitalctrl.jysk.core.workflow;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+
+import com.adobe.granite.workflow.PayloadMap;
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.DamConstants;
+import com.digitalctrl.jysk.core.filters.LatencyHistogram;
+import com.digitalctrl.jysk.core.workflow.impl.ImporterFixtures;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportMetrics;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportMetrics.Phase;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter.UpsertResult;
+
+/**
+ * Load test of the XML Product Mapper step: drives concurrent {@link XMLProcessing#execute} calls on generated
+ * product xml assets in an {@link InMemoryRepository} and reports throughput, latency percentiles, commit conflicts
+ * and heap growth. Executions cycle through the products, so fewer products than executions makes executions of the
+ * same product overlap and conflict the way repeated uploads of one file do.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.digitalctrl.jysk.core.workflow.ImportLoadHarness [executions=10000] [concurrency=8] [products=10000] [resolvers=4] [warmup=2000]
+ * </pre>
+ */
+public final class ImportLoadHarness {
+
+	private static final String TEMPLATE_PATH = "/conf/jysk/settings/dam/cfm/models/jysk-product";
+	private static final String LOAD_FOLDER = "/content/dam/jysk/load";
+	private static final String WARMUP_FOLDER = "/content/dam/jysk/warmup";
+	private static final String ORIGINAL_RENDITION = "/" + JcrConstants.JCR_CONTENT + "/" + DamConstants.RENDITIONS_FOLDER + "/" + DamConstants.ORIGINAL_FILE;
+
+	private final int executions;
+	private final int concurrency;
+	private final int products;
+	private final int resolvers;
+	private final int warmup;
+
+	private final InMemoryRepository repository = new InMemoryRepository(new ImportLoadFixtures());
+	private final MetricRegistry metricRegistry = new MetricRegistry();
+	private final XMLProcessing xmlProcessing = new XMLProcessing();
+	private final ProductImporter productImporter;
+
+	private ImportLoadHarness(Map<String, Integer> options) {
+		executions = options.getOrDefault("executions", 10000);
+		concurrency = options.getOrDefault("concurrency", 8);
+		products = Math.max(1, options.getOrDefault("products", executions));
+		resolvers = options.getOrDefault("resolvers", 4);
+		warmup = options.getOrDefault("warmup", 2000);
+
+		ResourceResolverFactory resourceResolverFactory = (ResourceResolverFactory) Proxy.newProxyInstance(ImportLoadHarness.class.getClassLoader(),
+				new Class<?>[] { ResourceResolverFactory.class }, (proxy, method, args) -> {
+					if(method.getName().endsWith("ResourceResolver")) {
+						return repository.login();
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		productImporter = ImporterFixtures.createImporter(resourceResolverFactory, metricRegistry, TEMPLATE_PATH, resolvers);
+		xmlProcessing.productImporter = productImporter;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, Integer> options = new HashMap<>();
+		for(String arg : args) {
+			String[] option = arg.split("=", 2);
+			if(option.length != 2) {
+				System.err.println("Usage: ImportLoadHarness [executions=n] [concurrency=n] [products=n] [resolvers=n] [warmup=n]");
+				System.exit(1);
+			}
+			options.put(option[0], Integer.valueOf(option[1]));
+		}
+		new ImportLoadHarness(options).run();
+	}
+
+	private void run() throws Exception {
+		setUp();
+
+		// The warm-up imports other products, so the measured executions create their fragments like a first import
+		LatencyHistogram warmupLatencies = new LatencyHistogram();
+		execute(WARMUP_FOLDER, Math.min(warmup, products), warmup, warmupLatencies);
+		long conflictsBefore = repository.getConflicts();
+		long commitsBefore = repository.getCommits();
+		long[] resultsBefore = getResultCounts();
+
+		long heapBefore = getUsedHeapAfterGc();
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+
+		LatencyHistogram latencies = new LatencyHistogram();
+		long start = System.nanoTime();
+		long failures = execute(LOAD_FOLDER, products, executions, latencies);
+		long elapsedNanos = System.nanoTime() - start;
+
+		long peakHeap = 0;
+		for(MemoryPoolMXBean pool : heapPools) {
+			peakHeap += pool.getPeakUsage().getUsed();
+		}
+		long heapAfter = getUsedHeapAfterGc();
+
+		LatencyHistogram.Snapshot latency = latencies.getSnapshot();
+		System.out.println(String.format(Locale.ENGLISH, "Executions:  %d on %d threads, %d products, %d service resolvers, %d failed",
+				executions, concurrency, products, resolvers, failures));
+		System.out.println(String.format(Locale.ENGLISH, "Throughput:  %.1f executions/s",
+				executions / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1))));
+		System.out.println(String.format(Locale.ENGLISH, "Latency:     mean %.2fms, p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms",
+				latency.getMean(), latency.getPercentile(0.5), latency.getPercentile(0.9), latency.getPercentile(0.99), latency.getMax()));
+		System.out.println(String.format(Locale.ENGLISH, "Commits:     %d committed, %d conflicts",
+				repository.getCommits() - commitsBefore, repository.getConflicts() - conflictsBefore));
+
+		long[] results = getResultCounts();
+		StringBuilder products = new StringBuilder("Products:   ");
+		for(UpsertResult result : UpsertResult.values()) {
+			products.append(' ').append(result.name().toLowerCase(Locale.ENGLISH)).append(' ').append(results[result.ordinal()] - resultsBefore[result.ordinal()]);
+		}
+		System.out.println(products);
+
+		// The phase timers include the warm-up, which is small next to the measured executions
+		StringBuilder phases = new StringBuilder("Phases:     ");
+		ProductImportMetrics metrics = productImporter.getMetrics();
+		for(Phase phase : Phase.values()) {
+			phases.append(String.format(Locale.ENGLISH, " %s %.3fms", phase.getMetricName(), toMillis(metrics.getTimer(phase).getSnapshot().getMean())));
+		}
+		Timer poolWait = metricRegistry.getTimers().get("jysk.xmlprocessing.resolverpool.waitTime");
+		if(poolWait != null) {
+			Snapshot poolWaitSnapshot = poolWait.getSnapshot();
+			phases.append(String.format(Locale.ENGLISH, ", resolver wait p99 %.3fms", toMillis(poolWaitSnapshot.get99thPercentile())));
+		}
+		System.out.println(phases);
+		System.out.println(String.format(Locale.ENGLISH, "Heap:        %.1fMB before, %.1fMB after (%+.1fMB), %.1fMB peak, %d nodes",
+				toMegabytes(heapBefore), toMegabytes(heapAfter), toMegabytes(heapAfter - heapBefore), toMegabytes(peakHeap), repository.size()));
+	}
+
+	// Creates the folders, the content fragment model and one xml asset per product for the warm-up and the measured run
+	private void setUp() throws Exception {
+		ResourceResolver setUpResolver = repository.login();
+		createFolder(setUpResolver, TEMPLATE_PATH, ImportLoadFixtures.FRAGMENT_TEMPLATE);
+		createFolder(setUpResolver, LOAD_FOLDER, "sling:OrderedFolder");
+		createFolder(setUpResolver, WARMUP_FOLDER, "sling:OrderedFolder");
+		setUpResolver.commit();
+		for(int i = 0; i < Math.max(products, warmup); i++) {
+			if(i < products) {
+				ImportLoadFixtures.createXmlAsset(setUpResolver, getAssetPath(LOAD_FOLDER, i), ImporterFixtures.createProduct(i));
+			}
+			if(i < Math.min(warmup, products)) {
+				ImportLoadFixtures.createXmlAsset(setUpResolver, getAssetPath(WARMUP_FOLDER, i), ImporterFixtures.createProduct(products + i));
+			}
+		}
+		setUpResolver.commit();
+		setUpResolver.close();
+	}
+
+	// Runs the step on the given number of executions, cycling through the products of a folder
+	private long execute(String folder, int numProducts, int numExecutions, LatencyHistogram latencies) throws Exception {
+		if(numExecutions <= 0) {
+			return 0;
+		}
+		AtomicLong failures = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			List<Future<?>> futures = new ArrayList<>(numExecutions);
+			for(int i = 0; i < numExecutions; i++) {
+				String payload = getAssetPath(folder, i % numProducts) + ORIGINAL_RENDITION;
+				futures.add(executor.submit(() -> {
+					WorkItem item = createWorkItem(payload);
+					WorkflowSession session = createSession();
+					long start = System.nanoTime();
+					try {
+						xmlProcessing.execute(item, session, null);
+					} catch (WorkflowException e) {
+						failures.incrementAndGet();
+					} finally {
+						latencies.record(System.nanoTime() - start);
+					}
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return failures.get();
+	}
+
+	private static void createFolder(ResourceResolver resourceResolver, String path, String primaryType) {
+		String parentPath = path.substring(0, path.lastIndexOf('/'));
+		Resource parent = resourceResolver.getResource(parentPath.isEmpty() ? "/" : parentPath);
+		if(parent == null) {
+			createFolder(resourceResolver, parentPath, "sling:Folder");
+			parent = resourceResolver.getResource(parentPath);
+		}
+		InMemoryRepository.write(parent, path.substring(path.lastIndexOf('/') + 1)).put(JcrConstants.JCR_PRIMARYTYPE, primaryType);
+	}
+
+	private static String getAssetPath(String folder, int index) {
+		return folder + "/product-" + index + ".xml";
+	}
+
+	private static WorkItem createWorkItem(String payload) {
+		WorkflowData workflowData = (WorkflowData) Proxy.newProxyInstance(ImportLoadHarness.class.getClassLoader(),
+				new Class<?>[] { WorkflowData.class }, (proxy, method, args) -> {
+					switch(method.getName()) {
+					case "getPayloadType":
+						return PayloadMap.TYPE_JCR_PATH;
+					case "getPayload":
+						return payload;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return (WorkItem) Proxy.newProxyInstance(ImportLoadHarness.class.getClassLoader(),
+				new Class<?>[] { WorkItem.class }, (proxy, method, args) -> {
+					switch(method.getName()) {
+					case "getWorkflowData":
+						return workflowData;
+					case "getContentPath":
+						return payload;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	// A workflow session adapts to a resolver of its own, like the session of the workflow user
+	private WorkflowSession createSession() {
+		ResourceResolver resourceResolver = repository.login();
+		return (WorkflowSession) Proxy.newProxyInstance(ImportLoadHarness.class.getClassLoader(),
+				new Class<?>[] { WorkflowSession.class }, (proxy, method, args) -> {
+					if("adaptTo".equals(method.getName()) && args[0] == ResourceResolver.class) {
+						return resourceResolver;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	private long[] getResultCounts() {
+		long[] counts = new long[UpsertResult.values().length];
+		for(UpsertResult result : UpsertResult.values()) {
+			counts[result.ordinal()] = productImporter.getMetrics().getCount(result);
+		}
+		return counts;
+	}
+
+	private static long getUsedHeapAfterGc() {
+		System.gc();
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static double toMillis(double nanos) {
+		return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private static double toMegabytes(long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+}
@@ -0,0 +1,338 @@
+package com.digitalctrl.jysk.core.workflow;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.adapter.AdapterFactory;
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+
+/**
+ * In-memory stand-in for the repository behind the import path. Every resolver works on its own pending changes
+ * and commits optimistically like an Oak session: a commit fails with a conflict when another resolver committed a
+ * node since this resolver first read it, e.g. when two executions create or update the same content fragment.
+ * Only the resolver calls the import path makes are answered.
+ */
+final class InMemoryRepository {
+
+	private final NavigableMap<String, Node> nodes = new TreeMap<>();
+	private final AdapterFactory adapterFactory;
+	private final AtomicLong commits = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private long revision;
+
+	InMemoryRepository(AdapterFactory adapterFactory) {
+		this.adapterFactory = adapterFactory;
+		nodes.put("/", new Node(Collections.<String, Object> singletonMap("jcr:primaryType", "rep:root"), 0));
+	}
+
+	/**
+	 * Opens a resolver with its own pending changes, as a login or a service login does.
+	 */
+	ResourceResolver login() {
+		return new Session().resolver;
+	}
+
+	long getCommits() {
+		return commits.get();
+	}
+
+	long getConflicts() {
+		return conflicts.get();
+	}
+
+	synchronized int size() {
+		return nodes.size();
+	}
+
+	private synchronized Node get(String path) {
+		return nodes.get(path);
+	}
+
+	private synchronized List<String> getChildPaths(String path) {
+		String prefix = getChildPrefix(path);
+		List<String> childPaths = new ArrayList<>();
+		for(String descendant : nodes.subMap(prefix, false, prefix + Character.MAX_VALUE, false).keySet()) {
+			if(descendant.indexOf('/', prefix.length()) < 0) {
+				childPaths.add(descendant);
+			}
+		}
+		return childPaths;
+	}
+
+	private synchronized void commit(Map<String, Map<String, Object>> changes, Map<String, Long> seenRevisions) throws PersistenceException {
+		for(String path : changes.keySet()) {
+			Node current = nodes.get(path);
+			long currentRevision = current == null ? 0 : current.revision;
+			if(currentRevision != seenRevisions.getOrDefault(path, 0L)) {
+				conflicts.incrementAndGet();
+				throw new PersistenceException("Unresolved conflicts in " + path);
+			}
+		}
+		long commitRevision = ++revision;
+		for(Map.Entry<String, Map<String, Object>> change : changes.entrySet()) {
+			if(change.getValue() == null) {
+				nodes.subMap(change.getKey() + "/", true, change.getKey() + "0", false).clear();
+				nodes.remove(change.getKey());
+			} else {
+				nodes.put(change.getKey(), new Node(Collections.unmodifiableMap(new HashMap<>(change.getValue())), commitRevision));
+			}
+		}
+		commits.incrementAndGet();
+	}
+
+	private static String getChildPrefix(String path) {
+		return "/".equals(path) ? path : path + "/";
+	}
+
+	private static final class Node {
+
+		private final Map<String, Object> properties;
+		private final long revision;
+
+		Node(Map<String, Object> properties, long revision) {
+			this.properties = properties;
+			this.revision = revision;
+		}
+	}
+
+	/**
+	 * The state of one resolver: the nodes it changed, null for removed ones, and the revision of every node it read.
+	 */
+	private final class Session implements InvocationHandler {
+
+		private final Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+		private final Map<String, Long> seenRevisions = new HashMap<>();
+		private final ResourceResolver resolver = (ResourceResolver) Proxy.newProxyInstance(InMemoryRepository.class.getClassLoader(),
+				new Class<?>[] { ResourceResolver.class }, this);
+		private boolean live = true;
+
+		Map<String, Object> read(String path) {
+			if(pending.containsKey(path)) {
+				return pending.get(path);
+			}
+			Node node = get(path);
+			seenRevisions.putIfAbsent(path, node == null ? 0 : node.revision);
+			return node == null ? null : node.properties;
+		}
+
+		// Returns the pending properties of a node, creating the node and its missing ancestors
+		Map<String, Object> write(String path) {
+			Map<String, Object> properties = pending.get(path);
+			if(properties == null) {
+				Map<String, Object> committed = read(path);
+				if(committed == null) {
+					String parentPath = ResourceUtil.getParent(path);
+					if(parentPath != null && read(parentPath) == null) {
+						write(parentPath);
+					}
+				}
+				properties = committed == null ? new HashMap<>() : new HashMap<>(committed);
+				pending.put(path, properties);
+			}
+			return properties;
+		}
+
+		Resource getResource(String path) {
+			if(path == null || !path.startsWith("/")) {
+				return null;
+			}
+			String normalized = ResourceUtil.normalize(path);
+			return normalized == null || read(normalized) == null ? null : new InMemoryResource(this, normalized);
+		}
+
+		List<Resource> getChildren(Resource parent) {
+			TreeSet<String> childPaths = new TreeSet<>(getChildPaths(parent.getPath()));
+			String prefix = getChildPrefix(parent.getPath());
+			for(Map.Entry<String, Map<String, Object>> change : pending.entrySet()) {
+				String path = change.getKey();
+				if(path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0) {
+					if(change.getValue() == null) {
+						childPaths.remove(path);
+					} else {
+						childPaths.add(path);
+					}
+				}
+			}
+			List<Resource> children = new ArrayList<>(childPaths.size());
+			for(String childPath : childPaths) {
+				Resource child = getResource(childPath);
+				if(child != null) {
+					children.add(child);
+				}
+			}
+			return children;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch(method.getName()) {
+			case "getResource": {
+				if(args.length == 1) {
+					return getResource((String) args[0]);
+				}
+				String relativePath = (String) args[1];
+				return getResource(args[0] == null || relativePath.startsWith("/") ? relativePath : ((Resource) args[0]).getPath() + "/" + relativePath);
+			}
+			case "getParent": {
+				return getResource(ResourceUtil.getParent(((Resource) args[0]).getPath()));
+			}
+			case "getChildren": {
+				return getChildren((Resource) args[0]);
+			}
+			case "listChildren": {
+				return getChildren((Resource) args[0]).iterator();
+			}
+			case "hasChildren": {
+				return !getChildren((Resource) args[0]).isEmpty();
+			}
+			case "delete": {
+				String path = ((Resource) args[0]).getPath();
+				read(path);
+				pending.put(path, null);
+				return null;
+			}
+			case "hasChanges": {
+				return !pending.isEmpty();
+			}
+			case "commit": {
+				// Like a failed Oak save, a failed commit leaves the changes pending until they are reverted
+				InMemoryRepository.this.commit(pending, seenRevisions);
+				pending.clear();
+				seenRevisions.clear();
+				return null;
+			}
+			case "revert":
+			case "refresh": {
+				pending.clear();
+				seenRevisions.clear();
+				return null;
+			}
+			case "isLive": {
+				return live;
+			}
+			case "close": {
+				live = false;
+				pending.clear();
+				return null;
+			}
+			case "adaptTo": {
+				return null;
+			}
+			case "hashCode": {
+				return System.identityHashCode(proxy);
+			}
+			case "equals": {
+				return proxy == args[0];
+			}
+			case "toString": {
+				return "InMemoryResourceResolver";
+			}
+			default: {
+				throw new UnsupportedOperationException(method.getName());
+			}
+			}
+		}
+	}
+
+	/**
+	 * A node seen through one resolver. Adapting to a DAM or content fragment type is left to the adapter factory.
+	 */
+	private final class InMemoryResource extends AbstractResource {
+
+		private final Session session;
+		private final String path;
+		private final ResourceMetadata metadata = new ResourceMetadata();
+
+		InMemoryResource(Session session, String path) {
+			this.session = session;
+			this.path = path;
+			metadata.setResolutionPath(path);
+		}
+
+		@Override
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public String getResourceType() {
+			Map<String, Object> properties = session.read(path);
+			Object resourceType = properties == null ? null : properties.get("sling:resourceType");
+			if(resourceType == null && properties != null) {
+				resourceType = properties.get("jcr:primaryType");
+			}
+			return resourceType == null ? "nt:unstructured" : resourceType.toString();
+		}
+
+		@Override
+		public String getResourceSuperType() {
+			return null;
+		}
+
+		@Override
+		public ResourceMetadata getResourceMetadata() {
+			return metadata;
+		}
+
+		@Override
+		public ResourceResolver getResourceResolver() {
+			return session.resolver;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+			if(type == ValueMap.class) {
+				Map<String, Object> properties = session.read(path);
+				return (AdapterType) new ValueMapDecorator(properties == null ? Collections.<String, Object> emptyMap() : properties);
+			}
+			if(type == ModifiableValueMap.class) {
+				return (AdapterType) new ModifiableValueMapDecorator(session.write(path));
+			}
+			return adapterFactory.getAdapter(this, type);
+		}
+
+		// The properties of a node below this one, for the adapters
+		Map<String, Object> read(String relativePath) {
+			return session.read(getChildPrefix(path) + relativePath);
+		}
+
+		Map<String, Object> write(String relativePath) {
+			return session.write(getChildPrefix(path) + relativePath);
+		}
+	}
+
+	/**
+	 * Reads the properties of a node below a resource of this repository, null if the node doesn't exist.
+	 */
+	static Map<String, Object> read(Resource resource, String relativePath) {
+		return ((InMemoryResource) resource).read(relativePath);
+	}
+
+	/**
+	 * Returns the pending properties of a node below a resource of this repository, creating it if needed.
+	 */
+	static Map<String, Object> write(Resource resource, String relativePath) {
+		return ((InMemoryResource) resource).write(relativePath);
+	}
+}
@@ -0,0 +1,164 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.adobe.cq.dam.cfm.BasicDataType;
+import com.adobe.cq.dam.cfm.ContentElement;
+import com.adobe.cq.dam.cfm.ContentFragment;
+import com.adobe.cq.dam.cfm.DataType;
+import com.adobe.cq.dam.cfm.ElementTemplate;
+import com.adobe.cq.dam.cfm.FragmentData;
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+
+/**
+ * Synthetic product feeds and in-memory stand-ins for the content fragment API, shaped like the jysk-product model.
+ * The stand-ins only answer the calls the import code makes, so the benchmarks measure the import code rather than
+ * a mocking library.
+ */
+final class BenchmarkFixtures {
+
+	static final String PRODUCT_ELEMENT = "product";
+
+	// Elements of the jysk-product model with their data types
+	private static final String[][] MODEL_ELEMENTS = {
+			{ "title", BasicDataType.STRING },
+			{ "sku", BasicDataType.STRING },
+			{ "description", BasicDataType.STRING },
+			{ "assetReference", BasicDataType.STRING },
+			{ "color", BasicDataType.STRING },
+			{ "price", BasicDataType.DOUBLE },
+			{ "discount", BasicDataType.DOUBLE }
+	};
+
+	private static final List<String> COLORS = Arrays.asList("white", "black", "grey", "oak", "blue", "green");
+
+	private BenchmarkFixtures() {
+	}
+
+	/**
+	 * Creates a feed of the given number of products below a single root element.
+	 */
+	static byte[] createFeed(int numProducts) {
+		StringBuilder feed = new StringBuilder(numProducts * 320 + 64);
+		feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<products>\n");
+		for(int i = 0; i < numProducts; i++) {
+			appendProduct(feed, i);
+		}
+		feed.append("</products>\n");
+		return feed.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates a single product document, as the per-file import reads it.
+	 */
+	static byte[] createProduct(int index) {
+		StringBuilder product = new StringBuilder(384);
+		product.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		appendProduct(product, index);
+		return product.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static Map<String, String> createProductElements(int index) {
+		Map<String, String> elements = new LinkedHashMap<>();
+		elements.put("title", "Courtney Stool " + index);
+		elements.put("sku", "sku-" + index);
+		elements.put("description", "Stool with a solid oak seat and powder coated legs, number " + index);
+		elements.put("assetReference", "/content/dam/jysk/images/courtney-stool-" + index + ".jpg");
+		elements.put("color", COLORS.get(index % COLORS.size()));
+		elements.put("price", String.valueOf(49 + index % 100) + ".95");
+		elements.put("discount", String.valueOf(index % 30));
+		return elements;
+	}
+
+	private static void appendProduct(StringBuilder xml, int index) {
+		xml.append("\t<").append(PRODUCT_ELEMENT).append(">\n");
+		for(Map.Entry<String, String> element : createProductElements(index).entrySet()) {
+			xml.append("\t\t<").append(element.getKey()).append('>');
+			if("description".equals(element.getKey())) {
+				xml.append("<![CDATA[").append(element.getValue()).append("]]>");
+			} else {
+				xml.append(element.getValue());
+			}
+			xml.append("</").append(element.getKey()).append(">\n");
+		}
+		xml.append("\t</").append(PRODUCT_ELEMENT).append(">\n");
+	}
+
+	static FragmentTemplate createTemplate() {
+		ElementTemplate[] elementTemplates = new ElementTemplate[MODEL_ELEMENTS.length];
+		for(int i = 0; i < MODEL_ELEMENTS.length; i++) {
+			String name = MODEL_ELEMENTS[i][0];
+			String typeString = MODEL_ELEMENTS[i][1];
+			DataType dataType = stub(DataType.class, (method, args) -> "getTypeString".equals(method) ? typeString : null);
+			elementTemplates[i] = stub(ElementTemplate.class, (method, args) -> {
+				switch(method) {
+				case "getName":
+				case "getTitle":
+					return name;
+				case "getDataType":
+					return dataType;
+				default:
+					return null;
+				}
+			});
+		}
+		return stub(FragmentTemplate.class, (method, args) -> "getElements".equals(method) ? Arrays.asList(elementTemplates).iterator() : null);
+	}
+
+	/**
+	 * Creates an empty fragment holding one element per model element.
+	 */
+	static ContentFragment createFragment(String name) {
+		Map<String, ContentElement> elements = new HashMap<>();
+		for(String[] modelElement : MODEL_ELEMENTS) {
+			Object[] value = new Object[1];
+			FragmentData fragmentData = stub(FragmentData.class, (method, args) -> {
+				switch(method) {
+				case "getValue":
+					return value[0];
+				case "setValue":
+					value[0] = args[0];
+					return null;
+				default:
+					return null;
+				}
+			});
+			elements.put(modelElement[0], stub(ContentElement.class, (method, args) -> {
+				switch(method) {
+				case "getName":
+					return modelElement[0];
+				case "getValue":
+					return fragmentData;
+				default:
+					return null;
+				}
+			}));
+		}
+		return stub(ContentFragment.class, (method, args) -> {
+			switch(method) {
+			case "getName":
+				return name;
+			case "getElement":
+				return elements.get(args[0]);
+			default:
+				return null;
+			}
+		});
+	}
+
+	@FunctionalInterface
+	private interface StubBehaviour {
+		Object invoke(String method, Object[] args);
+	}
+
+	private static <T> T stub(Class<T> type, StubBehaviour behaviour) {
+		return type.cast(Proxy.newProxyInstance(BenchmarkFixtures.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> behaviour.invoke(method.getName(), args)));
+	}
+}
@@ -0,0 +1,42 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, writing the results as JSON to
+ * target/jmh-result.json unless another result format or file is given.
+ */
+public final class BenchmarkRunner {
+
+	private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if(commandLineOptions.shouldHelp()) {
+			commandLineOptions.showHelp();
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+		if(!commandLineOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if(!commandLineOptions.getResult().hasValue()) {
+			options.result(DEFAULT_RESULT_FILE);
+		}
+
+		Runner runner = new Runner(options.build());
+		if(commandLineOptions.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+}
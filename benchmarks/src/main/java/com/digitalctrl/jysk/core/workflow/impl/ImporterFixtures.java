@@ -0,0 +1,78 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolverFactory;
+
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Wires a {@link ProductImporter} the way the OSGi container would, for harnesses outside this package that run the
+ * import path end to end against an in-memory repository.
+ */
+public final class ImporterFixtures {
+
+	private ImporterFixtures() {
+	}
+
+	/**
+	 * Creates an activated importer in sync DOM mode, writing through service resolvers of the given factory.
+	 *
+	 * @param templatePath path of the content fragment template the products are created from
+	 * @param resolverPoolSize number of imports that write at the same time
+	 */
+	public static ProductImporter createImporter(ResourceResolverFactory resourceResolverFactory, MetricRegistry metricRegistry, String templatePath,
+			int resolverPoolSize) {
+		DamImageIndex damImageIndex = new DamImageIndex();
+		damImageIndex.resourceResolverFactory = resourceResolverFactory;
+		damImageIndex.activate(config(DamImageIndex.Config.class, Collections.<String, Object> emptyMap()));
+
+		ProductImporter productImporter = new ProductImporter();
+		productImporter.resourceResolverFactory = resourceResolverFactory;
+		productImporter.mappingPlanCache = new FragmentMappingPlanCache();
+		productImporter.damImageIndex = damImageIndex;
+		productImporter.metricRegistry = metricRegistry;
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("contentFragmentTemplate", templatePath);
+		properties.put("mappingMode", XMLProcessingConfiguration.MAPPING_MODE_DOM);
+		properties.put("executionMode", XMLProcessingConfiguration.EXECUTION_MODE_SYNC);
+		properties.put("resolverPoolSize", resolverPoolSize);
+		productImporter.activate(config(XMLProcessingConfiguration.class, properties));
+		return productImporter;
+	}
+
+	/**
+	 * @return a stand-in for the jysk-product model that only lists its elements, fragments are created by the caller
+	 */
+	public static FragmentTemplate createModel() {
+		return BenchmarkFixtures.createTemplate();
+	}
+
+	/**
+	 * @return a single product document as the per-file import reads it
+	 */
+	public static byte[] createProduct(int index) {
+		return BenchmarkFixtures.createProduct(index);
+	}
+
+	// Function to create a component configuration answering the given properties and the defaults for the others
+	private static <T> T config(Class<T> type, Map<String, Object> properties) {
+		return type.cast(Proxy.newProxyInstance(ImporterFixtures.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			if(properties.containsKey(method.getName())) {
+				return properties.get(method.getName());
+			}
+			if(method.getDefaultValue() != null) {
+				return method.getDefaultValue();
+			}
+			if("annotationType".equals(method.getName())) {
+				return type;
+			}
+			return null;
+		}));
+	}
+}
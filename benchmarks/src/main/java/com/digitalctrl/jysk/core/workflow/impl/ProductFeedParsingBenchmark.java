@@ -0,0 +1,65 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Reads every product of a feed into its element map, once by building the whole document as the dom mapping mode
+ * does and once with the {@link ProductFeedReader} of the streaming mapping mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx6g" })
+public class ProductFeedParsingBenchmark {
+
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+	@Param({ "1", "1000", "100000", "1000000" })
+	public int products;
+
+	private byte[] feed;
+
+	@Setup
+	public void createFeed() {
+		feed = BenchmarkFixtures.createFeed(products);
+	}
+
+	@Benchmark
+	public int dom(Blackhole blackhole) throws Exception {
+		Document document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(new ByteArrayInputStream(feed));
+		NodeList productNodes = document.getElementsByTagName(BenchmarkFixtures.PRODUCT_ELEMENT);
+		int numProducts = productNodes.getLength();
+		for(int i = 0; i < numProducts; i++) {
+			blackhole.consume(ProductImporter.getXmlElements(productNodes.item(i)));
+		}
+		return numProducts;
+	}
+
+	@Benchmark
+	public int streaming(Blackhole blackhole) throws Exception {
+		return new ProductFeedReader(BenchmarkFixtures.PRODUCT_ELEMENT).read(new ByteArrayInputStream(feed), (index, elements) -> {
+			blackhole.consume(elements);
+			return true;
+		});
+	}
+}
@@ -0,0 +1,86 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Node;
+
+import com.adobe.cq.dam.cfm.ContentFragment;
+
+/**
+ * The per product steps of an import: collecting the xml elements, converting their values, deriving the title and
+ * writing the values to a content fragment, against in-memory content fragment stand-ins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductMappingBenchmark {
+
+	private Node productNode;
+	private Map<String, String> elements;
+	private FragmentMappingPlan mappingPlan;
+	private ContentFragment newFragment;
+	private ContentFragment upToDateFragment;
+
+	@Setup
+	public void setUp() throws Exception {
+		productNode = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(BenchmarkFixtures.createProduct(42))).getFirstChild();
+		elements = BenchmarkFixtures.createProductElements(42);
+		mappingPlan = FragmentMappingPlan.compile("/conf/jysk/settings/dam/cfm/models/jysk-product", BenchmarkFixtures.createTemplate());
+		newFragment = BenchmarkFixtures.createFragment("courtneyStool");
+		upToDateFragment = BenchmarkFixtures.createFragment("courtneyStool");
+		ProductImporter.setElementValues(mappingPlan, upToDateFragment, elements, false);
+	}
+
+	@Benchmark
+	public Map<String, String> getXmlElements() {
+		return ProductImporter.getXmlElements(productNode);
+	}
+
+	@Benchmark
+	public void convertValues(Blackhole blackhole) {
+		for(FragmentMappingPlan.FieldMapping mapping : mappingPlan.getMappings()) {
+			blackhole.consume(mapping.convert(elements.get(mapping.getXmlElementName())));
+		}
+	}
+
+	@Benchmark
+	public String splitCamelCase() {
+		return ProductImporter.splitCamelCase("courtneyStoolWhite2019");
+	}
+
+	@Benchmark
+	public String hash() {
+		return mappingPlan.hash(elements);
+	}
+
+	@Benchmark
+	public ContentFragment setElementValues() {
+		ProductImporter.setElementValues(mappingPlan, newFragment, elements, false);
+		return newFragment;
+	}
+
+	@Benchmark
+	public ContentFragment setElementValuesUnchanged() {
+		ProductImporter.setElementValues(mappingPlan, upToDateFragment, elements, true);
+		return upToDateFragment;
+	}
+}
@@ -0,0 +1,118 @@
+package com.digitalctrl.jysk.core.filters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear microsecond buckets. Every power of two is split into eight buckets,
+ * so a recorded latency lands in a bucket at most 12.5% wider than the latency itself. Recording is a few atomic
+ * increments, and percentiles are read from a consistent enough copy of the buckets without blocking recorders.
+ */
+public class LatencyHistogram {
+
+	// Latencies below this many microseconds get a bucket each
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Latencies of 2^32 microseconds (~71 minutes) and more share the last bucket
+	private static final int MAX_EXPONENT = 32;
+	private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 4) * SUB_BUCKETS + 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalMicros = new LongAdder();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long durationNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, durationNanos));
+		buckets.incrementAndGet(bucketOf(micros));
+		totalMicros.add(micros);
+		long max = maxMicros.get();
+		while(micros > max && !maxMicros.compareAndSet(max, micros)) {
+			max = maxMicros.get();
+		}
+	}
+
+	public Snapshot getSnapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		return new Snapshot(counts, total, totalMicros.sum(), maxMicros.get());
+	}
+
+	static int bucketOf(long micros) {
+		if(micros < LINEAR_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+	}
+
+	// The middle of the range of latencies a bucket holds
+	static double bucketValue(int bucket) {
+		if(bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+		int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		long lower = (1L << exponent) + subBucket * width;
+		return lower + width / 2.0;
+	}
+
+	/**
+	 * Copy of the histogram at one point in time, in milliseconds.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long totalMicros;
+		private final long maxMicros;
+
+		Snapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+			this.counts = counts;
+			this.count = count;
+			this.totalMicros = totalMicros;
+			this.maxMicros = maxMicros;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : totalMicros / 1000.0 / count;
+		}
+
+		public double getMax() {
+			return maxMicros / 1000.0;
+		}
+
+		/**
+		 * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+		 */
+		public double getPercentile(double quantile) {
+			if(count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank && counts[i] > 0) {
+					return Math.min(bucketValue(i), maxMicros) / 1000.0;
+				}
+			}
+			return getMax();
+		}
+	}
+}
@@ -16,6 +16,8 @@
 package com.digitalctrl.jysk.core.filters;
 
 import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -24,36 +26,76 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.engine.EngineConstants;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
 /**
- * Simple servlet filter component that logs incoming requests.
+ * Servlet filter component that records the latency of incoming requests per
+ * resource type, selector string and extension in {@link RequestLatencyStats}.
+ * Only a configurable share of the requests is timed.
  */
+@Designate(ocd = LoggingFilter.Config.class)
 @Component(service = Filter.class,
            property = {
-                   Constants.SERVICE_DESCRIPTION + "=Demo to filter incoming requests",
+                   Constants.SERVICE_DESCRIPTION + "=Records request latency histograms",
                    EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
                    Constants.SERVICE_RANKING + ":Integer=-700"
 
            })
 public class LoggingFilter implements Filter {
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    @ObjectClassDefinition(name = "JYSK Request Latency Filter",
+                           description = "Records request latency histograms per resource type, selector and extension")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Sample rate",
+                             description = "Share of the requests to time, from 0 (none) to 1 (all)")
+        double sample_rate() default 1.0;
+    }
+
+    @Reference
+    private RequestLatencyStats requestLatencyStats;
+
+    private volatile double sampleRate;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        sampleRate = Math.max(0, Math.min(1, config.sample_rate()));
+    }
 
     @Override
     public void doFilter(final ServletRequest request, final ServletResponse response,
                          final FilterChain filterChain) throws IOException, ServletException {
 
-        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
-        logger.debug("request for {}, with selector {}", slingRequest
-                .getRequestPathInfo().getResourcePath(), slingRequest
-                .getRequestPathInfo().getSelectorString());
+        if (!isSampled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+            final RequestPathInfo requestPathInfo = slingRequest.getRequestPathInfo();
+            requestLatencyStats.record(slingRequest.getResource().getResourceType(),
+                    requestPathInfo.getSelectorString(), requestPathInfo.getExtension(),
+                    System.nanoTime() - start);
+        }
+    }
 
-        filterChain.doFilter(request, response);
+    private boolean isSampled() {
+        final double rate = sampleRate;
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
     }
 
     @Override
@@ -64,4 +106,4 @@ public class LoggingFilter implements Filter {
     public void destroy() {
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,287 @@
+package com.digitalctrl.jysk.core.filters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Bounded store of the 404 pages recently rendered for paths that don't resolve to a resource, so the
+ * {@link NotFoundCacheFilter} can answer repeat misses without rendering the error handler again. Entries expire
+ * after a time to live and are dropped as soon as a resource is added at their path or above it, so a page that is
+ * published after it was missed is served on the next request.
+ */
+@Designate(ocd = NotFoundCache.Config.class)
+@Component(service = { NotFoundCache.class, ResourceChangeListener.class },
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=Cache of the 404 pages of missed paths",
+				ResourceChangeListener.CHANGES + "=ADDED"
+		})
+public class NotFoundCache implements ResourceChangeListener {
+
+	@ObjectClassDefinition(name = "JYSK Not Found Cache",
+			description = "Cache of the 404 pages rendered for request paths that don't resolve to a resource")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Paths", description = "Paths below which misses are cached, a resource added below them invalidates the misses at its path")
+		String[] resource_paths() default { "/content" };
+
+		@AttributeDefinition(name = "Maximum entries", description = "Number of missed paths kept, the least recently used ones are evicted first")
+		int maxEntries() default 10000;
+
+		@AttributeDefinition(name = "Time to live", description = "Seconds a 404 page is served from the cache")
+		long ttl() default 300;
+
+		@AttributeDefinition(name = "Maximum page size", description = "Characters of the largest 404 page that is cached")
+		int maxBodySize() default 65536;
+	}
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	// Counts the added resources, so a page rendered while its resource was being added is not stored
+	private final AtomicLong generation = new AtomicLong();
+
+	private volatile Entries entries = new Entries(1);
+
+	private volatile String[] paths;
+	private volatile int maxEntries;
+	private volatile long ttlMillis;
+	private volatile int maxBodySize;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		paths = config.resource_paths();
+		maxEntries = Math.max(1, config.maxEntries());
+		ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, config.ttl()));
+		maxBodySize = Math.max(0, config.maxBodySize());
+		entries = new Entries(maxEntries);
+	}
+
+	/**
+	 * @return whether misses of a path are cached
+	 */
+	public boolean isCached(String path) {
+		for(String root : paths) {
+			if(isAtOrBelow(path, root)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the cached 404 page of a path, or null if the path wasn't missed recently
+	 */
+	public NotFound get(String path) {
+		Entries currentEntries = entries;
+		NotFound notFound;
+		synchronized(currentEntries) {
+			notFound = currentEntries.get(path);
+			if(notFound != null && notFound.expires <= System.currentTimeMillis()) {
+				currentEntries.remove(path);
+				notFound = null;
+			}
+		}
+		if(notFound == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return notFound;
+	}
+
+	/**
+	 * Stores the 404 page rendered for a path, unless a resource was added since the given generation.
+	 */
+	public void put(String path, long renderGeneration, String contentType, String characterEncoding, String body) {
+		if(body.length() > maxBodySize || ttlMillis == 0) {
+			return;
+		}
+		NotFound notFound = new NotFound(contentType, characterEncoding, body, System.currentTimeMillis() + ttlMillis);
+		Entries currentEntries = entries;
+		synchronized(currentEntries) {
+			if(generation.get() != renderGeneration) {
+				return;
+			}
+			currentEntries.put(path, notFound);
+		}
+	}
+
+	/**
+	 * @return the generation a page rendered from now on is stored with
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	@Override
+	public void onChange(List<ResourceChange> changes) {
+		Entries currentEntries = entries;
+		synchronized(currentEntries) {
+			generation.incrementAndGet();
+			for(ResourceChange change : changes) {
+				String path = change.getPath();
+				List<String> invalidPaths = new ArrayList<>();
+				for(String cachedPath : currentEntries.sortedPaths.subMap(path, true, path + Character.MAX_VALUE, false).keySet()) {
+					if(isAtOrBelow(cachedPath, path)) {
+						invalidPaths.add(cachedPath);
+					}
+				}
+				for(String invalidPath : invalidPaths) {
+					currentEntries.remove(invalidPath);
+					invalidations.increment();
+				}
+			}
+		}
+	}
+
+	public int getSize() {
+		Entries currentEntries = entries;
+		synchronized(currentEntries) {
+			return currentEntries.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * Drops all cached pages and resets the statistics.
+	 */
+	public void clear() {
+		Entries currentEntries = entries;
+		synchronized(currentEntries) {
+			currentEntries.clear();
+		}
+		hits.reset();
+		misses.reset();
+		invalidations.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * The cached pages in access order, with their paths also kept sorted to find the ones below an added resource.
+	 * Both are guarded by the instance.
+	 */
+	private final class Entries extends LinkedHashMap<String, NotFound> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final NavigableMap<String, NotFound> sortedPaths = new TreeMap<>();
+		private final int capacity;
+
+		Entries(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		public NotFound put(String path, NotFound notFound) {
+			sortedPaths.put(path, notFound);
+			return super.put(path, notFound);
+		}
+
+		@Override
+		public NotFound remove(Object path) {
+			sortedPaths.remove(path);
+			return super.remove(path);
+		}
+
+		@Override
+		public void clear() {
+			sortedPaths.clear();
+			super.clear();
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, NotFound> eldest) {
+			if(size() > capacity) {
+				sortedPaths.remove(eldest.getKey());
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	// A request path is at a resource path when it only adds selectors and an extension, e.g. /a/b.html is at /a/b
+	private static boolean isAtOrBelow(String path, String root) {
+		if(!path.startsWith(root)) {
+			return false;
+		}
+		if(path.length() == root.length() || root.endsWith("/")) {
+			return true;
+		}
+		char next = path.charAt(root.length());
+		return next == '/' || next == '.';
+	}
+
+	/**
+	 * A 404 page as the error handler rendered it.
+	 */
+	public static final class NotFound {
+
+		private final String contentType;
+		private final String characterEncoding;
+		private final String body;
+		private final long expires;
+
+		NotFound(String contentType, String characterEncoding, String body, long expires) {
+			this.contentType = contentType;
+			this.characterEncoding = characterEncoding;
+			this.body = body;
+			this.expires = expires;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		public String getBody() {
+			return body;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.digitalctrl.jysk.core.filters;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Answers repeat requests for paths that don't resolve to a resource from the {@link NotFoundCache}, before the
+ * servlet resolution, the error handler and its HTL page run. A miss runs through as usual and the 404 page the
+ * error handler renders for it is stored on the way out. Only anonymous GET and HEAD requests are cached, as a path
+ * missing for anonymous visitors may exist for a logged in user.
+ */
+@Component(service = Filter.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=Serves cached 404 pages for recently missed paths",
+				EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
+				EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_ERROR,
+				// Ahead of the other request filters, which a repeat miss doesn't need either
+				Constants.SERVICE_RANKING + ":Integer=5000"
+		})
+public class NotFoundCacheFilter implements Filter {
+
+	private static final String ANONYMOUS = "anonymous";
+
+	// The cache generation when the request passed the request filter, set on misses that may be stored
+	private static final String ATTR_GENERATION = NotFoundCacheFilter.class.getName() + ".generation";
+
+	@Reference
+	NotFoundCache notFoundCache;
+
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain filterChain)
+			throws IOException, ServletException {
+		SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+		Resource resource = slingRequest.getResource();
+		if(!isCacheable(slingRequest, resource)) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		Object errorStatus = request.getAttribute(SlingConstants.ERROR_STATUS);
+		if(errorStatus == null) {
+			NotFoundCache.NotFound notFound = notFoundCache.get(resource.getPath());
+			if(notFound != null) {
+				writeNotFound((SlingHttpServletResponse) response, notFound, "HEAD".equals(slingRequest.getMethod()));
+				return;
+			}
+			request.setAttribute(ATTR_GENERATION, notFoundCache.getGeneration());
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		Object generation = request.getAttribute(ATTR_GENERATION);
+		if(!Integer.valueOf(HttpServletResponse.SC_NOT_FOUND).equals(errorStatus) || generation == null || "HEAD".equals(slingRequest.getMethod())) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		CapturingResponse capturingResponse = new CapturingResponse((SlingHttpServletResponse) response, notFoundCache.getMaxBodySize());
+		filterChain.doFilter(request, capturingResponse);
+		String body = capturingResponse.getBody();
+		if(body != null) {
+			notFoundCache.put(resource.getPath(), (Long) generation, response.getContentType(), response.getCharacterEncoding(), body);
+		}
+	}
+
+	private boolean isCacheable(SlingHttpServletRequest request, Resource resource) {
+		String method = request.getMethod();
+		String user = request.getRemoteUser();
+		return ("GET".equals(method) || "HEAD".equals(method))
+				&& (user == null || ANONYMOUS.equals(user))
+				&& ResourceUtil.isNonExistingResource(resource)
+				&& notFoundCache.isCached(resource.getPath());
+	}
+
+	private static void writeNotFound(SlingHttpServletResponse response, NotFoundCache.NotFound notFound, boolean head) throws IOException {
+		response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		if(notFound.getContentType() != null) {
+			response.setContentType(notFound.getContentType());
+		}
+		if(notFound.getCharacterEncoding() != null) {
+			response.setCharacterEncoding(notFound.getCharacterEncoding());
+		}
+		if(!head) {
+			response.getWriter().write(notFound.getBody());
+		}
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) {
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	/**
+	 * Copies what the error handler writes to its writer, up to a maximum size. Pages written to the output stream
+	 * are passed through without being cached.
+	 */
+	private static final class CapturingResponse extends SlingHttpServletResponseWrapper {
+
+		private final int maxBodySize;
+		private StringBuilder body = new StringBuilder();
+		private PrintWriter writer;
+		private boolean streamed;
+		// The error handler sets the status it renders for, the error status is assumed until then
+		private int status = HttpServletResponse.SC_NOT_FOUND;
+
+		CapturingResponse(SlingHttpServletResponse response, int maxBodySize) {
+			super(response);
+			this.maxBodySize = maxBodySize;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if(writer == null) {
+				Writer responseWriter = super.getWriter();
+				writer = new PrintWriter(new Writer() {
+
+					@Override
+					public void write(char[] chars, int offset, int length) throws IOException {
+						responseWriter.write(chars, offset, length);
+						capture(chars, offset, length);
+					}
+
+					@Override
+					public void flush() throws IOException {
+						responseWriter.flush();
+					}
+
+					@Override
+					public void close() throws IOException {
+						responseWriter.close();
+					}
+				});
+			}
+			return writer;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			streamed = true;
+			return super.getOutputStream();
+		}
+
+		@Override
+		public void setStatus(int status) {
+			super.setStatus(status);
+			this.status = status;
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			body = new StringBuilder();
+		}
+
+		@Override
+		public void resetBuffer() {
+			super.resetBuffer();
+			body = new StringBuilder();
+		}
+
+		private void capture(char[] chars, int offset, int length) {
+			if(body == null) {
+				return;
+			}
+			if(body.length() + length > maxBodySize) {
+				body = null;
+				return;
+			}
+			body.append(chars, offset, length);
+		}
+
+		/**
+		 * @return the page written, or null if it was streamed or too large to cache
+		 */
+		String getBody() {
+			if(writer != null) {
+				writer.flush();
+			}
+			return streamed || body == null || status != HttpServletResponse.SC_NOT_FOUND ? null : body.toString();
+		}
+	}
+}
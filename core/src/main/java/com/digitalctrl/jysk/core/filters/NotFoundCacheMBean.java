@@ -0,0 +1,31 @@
+package com.digitalctrl.jysk.core.filters;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("JYSK cache of the 404 pages of recently missed paths")
+public interface NotFoundCacheMBean {
+
+	@Description("Number of cached missed paths")
+	int getSize();
+
+	@Description("Maximum number of cached missed paths")
+	int getMaxEntries();
+
+	@Description("Requests answered with a cached 404 page")
+	long getHits();
+
+	@Description("Requests for missed paths that rendered the error handler")
+	long getMisses();
+
+	@Description("Missed paths dropped because a resource was added at or above them")
+	long getInvalidations();
+
+	@Description("Missed paths evicted to stay within the maximum number of entries")
+	long getEvictions();
+
+	@Description("Share of requests for missed paths answered from the cache")
+	double getHitRatio();
+
+	@Description("Drop all cached 404 pages and reset the statistics")
+	void clear();
+}
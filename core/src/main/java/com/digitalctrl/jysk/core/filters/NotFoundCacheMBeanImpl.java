@@ -0,0 +1,67 @@
+package com.digitalctrl.jysk.core.filters;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+
+/**
+ * Exposes the statistics of the {@link NotFoundCache} in JMX.
+ */
+@Component(service = NotFoundCacheMBean.class,
+		property = {
+				"jmx.objectname=com.digitalctrl.jysk:type=NotFoundCache"
+		})
+public class NotFoundCacheMBeanImpl extends AnnotatedStandardMBean implements NotFoundCacheMBean {
+
+	@Reference
+	NotFoundCache notFoundCache;
+
+	public NotFoundCacheMBeanImpl() throws NotCompliantMBeanException {
+		super(NotFoundCacheMBean.class);
+	}
+
+	@Override
+	public int getSize() {
+		return notFoundCache.getSize();
+	}
+
+	@Override
+	public int getMaxEntries() {
+		return notFoundCache.getMaxEntries();
+	}
+
+	@Override
+	public long getHits() {
+		return notFoundCache.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return notFoundCache.getMisses();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return notFoundCache.getInvalidations();
+	}
+
+	@Override
+	public long getEvictions() {
+		return notFoundCache.getEvictions();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = notFoundCache.getHits();
+		long lookups = hits + notFoundCache.getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public void clear() {
+		notFoundCache.clear();
+	}
+}
@@ -0,0 +1,15 @@
+package com.digitalctrl.jysk.core.filters;
+
+import javax.management.openmbean.TabularData;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("JYSK request latency per resource type, selector and extension")
+public interface RequestLatencyMBean {
+
+	@Description("Recorded requests and their latency in milliseconds")
+	TabularData getLatencies();
+
+	@Description("Drop all recorded latencies")
+	void reset();
+}
@@ -0,0 +1,75 @@
+package com.digitalctrl.jysk.core.filters;
+
+import java.util.Map;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.digitalctrl.jysk.core.filters.RequestLatencyStats.RequestKey;
+
+/**
+ * Exposes the {@link RequestLatencyStats} in JMX.
+ */
+@Component(service = RequestLatencyMBean.class,
+		property = {
+				"jmx.objectname=com.digitalctrl.jysk:type=RequestLatency"
+		})
+public class RequestLatencyMBeanImpl extends AnnotatedStandardMBean implements RequestLatencyMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestLatencyMBeanImpl.class);
+
+	private static final String[] LATENCY_ITEMS = { "request", "count", "mean", "p50", "p90", "p99", "max" };
+	private static final CompositeType LATENCY_TYPE;
+	private static final TabularType LATENCY_TABLE_TYPE;
+
+	static {
+		try {
+			OpenType<?>[] itemTypes = { SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE };
+			LATENCY_TYPE = new CompositeType("requestLatency", "Latency of requests in milliseconds", LATENCY_ITEMS, LATENCY_ITEMS, itemTypes);
+			LATENCY_TABLE_TYPE = new TabularType("requestLatencies", "Latency per resource type, selector and extension", LATENCY_TYPE, new String[] { "request" });
+		} catch (OpenDataException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Reference
+	RequestLatencyStats requestLatencyStats;
+
+	public RequestLatencyMBeanImpl() throws NotCompliantMBeanException {
+		super(RequestLatencyMBean.class);
+	}
+
+	@Override
+	public TabularData getLatencies() {
+		TabularDataSupport latencies = new TabularDataSupport(LATENCY_TABLE_TYPE);
+		for(Map.Entry<RequestKey, LatencyHistogram> histogram : requestLatencyStats.getHistograms().entrySet()) {
+			LatencyHistogram.Snapshot snapshot = histogram.getValue().getSnapshot();
+			Object[] values = { histogram.getKey().toString(), snapshot.getCount(), snapshot.getMean(), snapshot.getPercentile(0.5),
+					snapshot.getPercentile(0.9), snapshot.getPercentile(0.99), snapshot.getMax() };
+			try {
+				latencies.put(new CompositeDataSupport(LATENCY_TYPE, LATENCY_ITEMS, values));
+			} catch (OpenDataException e) {
+				LOGGER.error("Failed reporting latency of {}", histogram.getKey(), e);
+			}
+		}
+		return latencies;
+	}
+
+	@Override
+	public void reset() {
+		requestLatencyStats.reset();
+	}
+}
@@ -0,0 +1,108 @@
+package com.digitalctrl.jysk.core.filters;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Request latency histograms per resource type, selector string and extension, as recorded by the
+ * {@link LoggingFilter}. The number of keys is bounded so that requests with arbitrary selectors can't grow the
+ * map without limit; once the limit is reached new keys are recorded as {@link #OVERFLOW_RESOURCE_TYPE}.
+ */
+@Component(service = RequestLatencyStats.class)
+public class RequestLatencyStats {
+
+	public static final String OVERFLOW_RESOURCE_TYPE = "(other)";
+
+	private static final int MAX_KEYS = 1000;
+
+	private static final RequestKey OVERFLOW_KEY = new RequestKey(OVERFLOW_RESOURCE_TYPE, null, null);
+
+	private final ConcurrentMap<RequestKey, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	public void record(String resourceType, String selectors, String extension, long durationNanos) {
+		RequestKey key = new RequestKey(resourceType, selectors, extension);
+		LatencyHistogram histogram = histograms.get(key);
+		if(histogram == null) {
+			if(histograms.size() >= MAX_KEYS) {
+				key = OVERFLOW_KEY;
+			}
+			histogram = histograms.computeIfAbsent(key, newKey -> new LatencyHistogram());
+		}
+		histogram.record(durationNanos);
+	}
+
+	public Map<RequestKey, LatencyHistogram> getHistograms() {
+		return histograms;
+	}
+
+	/**
+	 * Drops all recorded latencies.
+	 */
+	public void reset() {
+		histograms.clear();
+	}
+
+	/**
+	 * What the latency of a request is recorded under.
+	 */
+	public static final class RequestKey {
+
+		private final String resourceType;
+		private final String selectors;
+		private final String extension;
+		private final int hashCode;
+
+		RequestKey(String resourceType, String selectors, String extension) {
+			this.resourceType = resourceType;
+			this.selectors = selectors;
+			this.extension = extension;
+			this.hashCode = Objects.hash(resourceType, selectors, extension);
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public String getSelectors() {
+			return selectors;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof RequestKey)) {
+				return false;
+			}
+			RequestKey other = (RequestKey) obj;
+			return Objects.equals(resourceType, other.resourceType) && Objects.equals(selectors, other.selectors)
+					&& Objects.equals(extension, other.extension);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder key = new StringBuilder(resourceType);
+			if(selectors != null) {
+				key.append('.').append(selectors);
+			}
+			if(extension != null) {
+				key.append('.').append(extension);
+			}
+			return key.toString();
+		}
+	}
+}
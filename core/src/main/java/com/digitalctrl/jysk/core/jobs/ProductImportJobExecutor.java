@@ -0,0 +1,192 @@
+package com.digitalctrl.jysk.core.jobs;
+
+import java.util.Collections;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.Queue;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
+
+/**
+ * Imports single product xml assets queued by the XML Product Mapper workflow steps in async mode, so that parsing
+ * and writing run on the threads of the dedicated job queue instead of the shared workflow threads. The parallelism
+ * and the number of retries are set by the queue configuration, the delay between retries doubles with every retry.
+ * Once the configured number of jobs is waiting, no further jobs are accepted until the queue has caught up. Imports
+ * a workflow waits for are queued on a separate topic whose queue keeps finished jobs, so their outcome can be read.
+ */
+@Designate(ocd = ProductImportJobExecutor.Config.class)
+@Component(service = { JobExecutor.class, ProductImportJobExecutor.class },
+		property = {
+				JobExecutor.PROPERTY_TOPICS + "=" + ProductImportJobExecutor.TOPIC,
+				JobExecutor.PROPERTY_TOPICS + "=" + ProductImportJobExecutor.TRACKED_TOPIC
+		})
+public class ProductImportJobExecutor implements JobExecutor {
+
+	public static final String TOPIC = "com/digitalctrl/jysk/products/import";
+
+	/**
+	 * Name of the job queue configured for {@link #TOPIC}.
+	 */
+	public static final String QUEUE_NAME = "JYSK Product Import";
+
+	/**
+	 * Topic of the imports whose outcome is read once they ended, its queue keeps finished jobs.
+	 */
+	public static final String TRACKED_TOPIC = TOPIC + "/tracked";
+
+	/**
+	 * Name of the job queue configured for {@link #TRACKED_TOPIC}.
+	 */
+	public static final String TRACKED_QUEUE_NAME = "JYSK Product Import (tracked)";
+
+	/**
+	 * Job property holding the path of the product xml asset to import.
+	 */
+	public static final String PROPERTY_PATH = "path";
+
+	@ObjectClassDefinition(name = "JYSK Product Import Jobs",
+			description = "Async imports of product xml assets queued by the XML Product Mapper workflow steps")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Maximum queued jobs",
+				description = "Number of waiting import jobs above which new imports are refused, the workflow step then fails and is retried by the workflow engine")
+		long maxQueuedJobs() default 1000;
+
+		@AttributeDefinition(name = "Retry delay",
+				description = "Milliseconds before the first retry of a failed import, doubled with every further retry")
+		long retryDelay() default 10000;
+
+		@AttributeDefinition(name = "Maximum retry delay",
+				description = "Milliseconds the delay between retries is capped at")
+		long maxRetryDelay() default 600000;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductImportJobExecutor.class);
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	ProductImporter productImporter;
+
+	@Reference
+	JobManager jobManager;
+
+	private volatile long maxQueuedJobs;
+	private volatile long retryDelay;
+	private volatile long maxRetryDelay;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		maxQueuedJobs = Math.max(1, config.maxQueuedJobs());
+		retryDelay = Math.max(0, config.retryDelay());
+		maxRetryDelay = Math.max(retryDelay, config.maxRetryDelay());
+	}
+
+	/**
+	 * Queues the import of a product xml asset.
+	 *
+	 * @throws ProductImportException if the queue is full or the job couldn't be added
+	 */
+	public Job enqueue(String assetPath) throws ProductImportException {
+		return enqueue(TOPIC, QUEUE_NAME, assetPath);
+	}
+
+	/**
+	 * Queues the import of a product xml asset whose job is kept once it ended, succeeded or not, so its outcome can
+	 * be read. The caller removes it with {@link #removeJob(String)} once it has read it.
+	 *
+	 * @throws ProductImportException if the queue is full or the job couldn't be added
+	 */
+	public Job enqueueTracked(String assetPath) throws ProductImportException {
+		return enqueue(TRACKED_TOPIC, TRACKED_QUEUE_NAME, assetPath);
+	}
+
+	private Job enqueue(String topic, String queueName, String assetPath) throws ProductImportException {
+		Queue queue = jobManager.getQueue(queueName);
+		long queuedJobs = queue == null ? 0 : queue.getStatistics().getNumberOfQueuedJobs();
+		if(queuedJobs >= maxQueuedJobs) {
+			throw new ProductImportException("Product import queue is full with " + queuedJobs + " waiting jobs, not queuing " + assetPath);
+		}
+
+		Job job = jobManager.addJob(topic, Collections.<String, Object> singletonMap(PROPERTY_PATH, assetPath));
+		if(job == null) {
+			throw new ProductImportException("Failed queuing product import of " + assetPath);
+		}
+		LOGGER.debug("Queued product import job {} for {}", job.getId(), assetPath);
+		return job;
+	}
+
+	/**
+	 * @return the import job, or null if it doesn't exist, which for an untracked job is the case once it succeeded
+	 */
+	public Job getJob(String jobId) {
+		return jobManager.getJobById(jobId);
+	}
+
+	public void removeJob(String jobId) {
+		jobManager.removeJobById(jobId);
+	}
+
+	@Override
+	public JobExecutionResult process(final Job job, final JobExecutionContext context) {
+		String path = job.getProperty(PROPERTY_PATH, String.class);
+		LOGGER.debug("Running product import job {} on {}", job.getId(), path);
+
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Resource assetResource = path == null ? null : resourceResolver.getResource(path);
+			Asset asset = assetResource == null ? null : assetResource.adaptTo(Asset.class);
+			if(asset == null) {
+				return context.result().message("No asset found at " + path).cancelled();
+			}
+			productImporter.importAsset(asset);
+		} catch (LoginException | ProductImportException | RuntimeException e) {
+			// Read and commit failures of the import itself end up here as well, so they are retried with the backoff
+			return fail(job, context, path, e);
+		}
+		return context.result().succeeded();
+	}
+
+	private JobExecutionResult fail(Job job, JobExecutionContext context, String path, Exception e) {
+		if(job.getRetryCount() >= job.getNumberOfRetries()) {
+			LOGGER.error("Failed product import job {} on {}, giving up after {} retries", new Object[] { job.getId(), path, job.getRetryCount(), e });
+			return context.result().message(e.getMessage()).failed();
+		}
+		long delay = getRetryDelay(job.getRetryCount());
+		LOGGER.error("Failed product import job {} on {}, retrying in {} ms", new Object[] { job.getId(), path, delay, e });
+		return context.result().message(e.getMessage()).failed(delay);
+	}
+
+	// Function to double the retry delay with every retry, up to the maximum
+	private long getRetryDelay(int retryCount) {
+		long delay = retryDelay;
+		for(int i = 0; i < retryCount && delay < maxRetryDelay; i++) {
+			delay *= 2;
+		}
+		return Math.min(delay, maxRetryDelay);
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "xmlProcessing"));
+	}
+}
@@ -0,0 +1,531 @@
+package com.digitalctrl.jysk.core.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter.ImportTarget;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter.UpsertResult;
+import com.digitalctrl.jysk.core.workflow.impl.ServiceResolverPool;
+
+/**
+ * Imports every product xml file of a DAM folder, or of a zip archive stored in the DAM, in one Sling job instead of
+ * one workflow instance per file. Files are parsed on parallel parser threads and the products they contain are
+ * handed through bounded queues to a fixed number of writer threads, each committing through its own resolver.
+ * Products are routed to writers by name, so two writers never write the same content fragment. A parser or writer
+ * that dies fails the whole job, the other threads stop waiting on the queues instead of blocking on it.
+ */
+@Designate(ocd = ProductIngestJobExecutor.Config.class)
+@Component(service = JobExecutor.class, property = { JobExecutor.PROPERTY_TOPICS + "=" + ProductIngestJobExecutor.TOPIC })
+public class ProductIngestJobExecutor implements JobExecutor {
+
+	public static final String TOPIC = "com/digitalctrl/jysk/products/ingest";
+
+	/**
+	 * Job property holding the path of the DAM folder or zip asset to import.
+	 */
+	public static final String PROPERTY_PATH = "path";
+
+	@ObjectClassDefinition(name = "JYSK Product Bulk Ingest",
+			description = "Parallel parsing and bounded writing of product xml files queued by the bulk ingest servlet")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Parser threads",
+				description = "Number of files parsed in parallel within one job")
+		int parserThreads() default 4;
+
+		@AttributeDefinition(name = "Writer threads",
+				description = "Number of threads writing products within one job, each holds a resolver of the XML Product Processing resolver pool")
+		int writerThreads() default 2;
+
+		@AttributeDefinition(name = "Queue capacity",
+				description = "Number of parsed products buffered per writer before parsers wait for the writers to catch up")
+		int queueCapacity() default 500;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductIngestJobExecutor.class);
+
+	private static final String ZIP_MIME_TYPE = "application/zip";
+	private static final String XML_EXTENSION = ".xml";
+
+	// Seconds a thread waits on a queue before checking whether the run failed
+	private static final long QUEUE_WAIT = 1;
+
+	private static final SourceFile END_OF_FILES = new SourceFile(null, null, null, null, null);
+	private static final ProductRecord END_OF_PRODUCTS = new ProductRecord(null, null, null, null, null);
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	ProductImporter productImporter;
+
+	private int parserThreads;
+	private int writerThreads;
+	private int queueCapacity;
+
+	@Activate
+	protected void activate(final Config config) {
+		parserThreads = Math.max(1, config.parserThreads());
+		writerThreads = Math.max(1, config.writerThreads());
+		queueCapacity = Math.max(1, config.queueCapacity());
+	}
+
+	@Override
+	public JobExecutionResult process(final Job job, final JobExecutionContext context) {
+		String path = job.getProperty(PROPERTY_PATH, String.class);
+		LOGGER.info("Running product ingest job {} on {}", job.getId(), path);
+
+		IngestRun run = new IngestRun(context);
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Resource sourceResource = path == null ? null : resourceResolver.getResource(path);
+			if(sourceResource == null) {
+				return context.result().message("No resource found at " + path).cancelled();
+			}
+			run.execute(sourceResource);
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver for product ingest job {}", job.getId(), e);
+			return context.result().message("Failed getting service resolver: " + e.getMessage()).failed();
+		} catch (IOException e) {
+			LOGGER.error("Failed reading source of product ingest job {}", job.getId(), e);
+			return context.result().message("Failed reading " + path + ": " + e.getMessage()).failed();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return context.result().message("Interrupted. " + run.getSummary()).cancelled();
+		}
+
+		if(run.getFailure() != null) {
+			LOGGER.error("Failed product ingest job {}: {}. {}", new Object[] { job.getId(), run.getFailure(), run.getSummary() });
+			return context.result().message(run.getFailure() + ". " + run.getSummary()).failed();
+		}
+		LOGGER.info("Finished product ingest job {}: {}", job.getId(), run.getSummary());
+		if(context.isStopped()) {
+			return context.result().message("Stopped. " + run.getSummary()).cancelled();
+		}
+		return context.result().message(run.getSummary()).succeeded();
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "xmlProcessing"));
+	}
+
+	/**
+	 * State of one job execution: the queues between the job thread, the parsers and the writers, and the counters
+	 * reported back as the job result.
+	 */
+	private class IngestRun {
+
+		private final JobExecutionContext context;
+		private final BlockingQueue<SourceFile> sourceFiles = new ArrayBlockingQueue<>(queueCapacity);
+		private final List<BlockingQueue<ProductRecord>> writerQueues = new ArrayList<>();
+		private final CountDownLatch parsersDone = new CountDownLatch(parserThreads);
+		private final AtomicInteger filesQueued = new AtomicInteger();
+		private final AtomicInteger filesParsed = new AtomicInteger();
+		private final AtomicInteger filesFailed = new AtomicInteger();
+		private final Map<UpsertResult, AtomicInteger> results = new EnumMap<>(UpsertResult.class);
+		// Set by the first thread that can't go on, every other thread then stops at its next queue operation
+		private final AtomicReference<String> failure = new AtomicReference<>();
+
+		// The archive being ingested, spooled to a file so the parsers stream its entries
+		private File archiveFile;
+		private ZipFile archive;
+
+		IngestRun(JobExecutionContext context) {
+			this.context = context;
+			for(UpsertResult result : UpsertResult.values()) {
+				results.put(result, new AtomicInteger());
+			}
+			for(int i = 0; i < writerThreads; i++) {
+				writerQueues.add(new ArrayBlockingQueue<>(queueCapacity));
+			}
+		}
+
+		void execute(Resource sourceResource) throws IOException, InterruptedException {
+			ExecutorService executor = Executors.newFixedThreadPool(parserThreads + writerThreads);
+			try {
+				List<Future<?>> writers = new ArrayList<>();
+				for(BlockingQueue<ProductRecord> writerQueue : writerQueues) {
+					writers.add(executor.submit(() -> {
+						write(writerQueue);
+						return null;
+					}));
+				}
+				for(int i = 0; i < parserThreads; i++) {
+					executor.submit(this::parse);
+				}
+
+				try {
+					queueSourceFiles(sourceResource);
+				} finally {
+					for(int i = 0; i < parserThreads; i++) {
+						offer(sourceFiles, END_OF_FILES);
+					}
+				}
+
+				int filesReported = 0;
+				while(!parsersDone.await(QUEUE_WAIT, TimeUnit.SECONDS)) {
+					filesReported = reportProgress(filesReported);
+				}
+				reportProgress(filesReported);
+
+				for(BlockingQueue<ProductRecord> writerQueue : writerQueues) {
+					offer(writerQueue, END_OF_PRODUCTS);
+				}
+				for(Future<?> writer : writers) {
+					writer.get();
+				}
+			} catch (ExecutionException e) {
+				LOGGER.error("Product ingest writer failed", e.getCause());
+				fail("Product ingest writer failed: " + e.getCause());
+			} finally {
+				executor.shutdownNow();
+				executor.awaitTermination(QUEUE_WAIT * 10, TimeUnit.SECONDS);
+				closeArchive();
+			}
+		}
+
+		String getFailure() {
+			return failure.get();
+		}
+
+		private void fail(String message) {
+			failure.compareAndSet(null, message);
+		}
+
+		// Hands an item to a consumer, waiting while its queue is full unless the run failed
+		private <T> boolean offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+			while(!queue.offer(item, QUEUE_WAIT, TimeUnit.SECONDS)) {
+				if(failure.get() != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// Takes the next item of a queue, or null once the run failed
+		private <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+			T item;
+			while((item = queue.poll(QUEUE_WAIT, TimeUnit.SECONDS)) == null) {
+				if(failure.get() != null) {
+					return null;
+				}
+			}
+			return item;
+		}
+
+		// Queues every xml file of the source for the parsers, blocking while they are behind
+		private void queueSourceFiles(Resource sourceResource) throws IOException, InterruptedException {
+			Asset sourceAsset = sourceResource.adaptTo(Asset.class);
+			if(sourceAsset != null && isArchive(sourceAsset)) {
+				queueArchiveEntries(sourceAsset);
+			} else {
+				List<Resource> xmlAssets = new ArrayList<>();
+				collectXmlAssets(sourceResource, xmlAssets);
+				context.initProgress(xmlAssets.size(), -1);
+				for(Resource xmlAsset : xmlAssets) {
+					if(context.isStopped()
+							|| !queue(new SourceFile(ProductImporter.getSourceName(xmlAsset.getName()), ResourceUtil.getParent(xmlAsset.getPath()), xmlAsset.getPath(), null, null))) {
+						return;
+					}
+				}
+			}
+		}
+
+		// Spools the archive to a file, so the parsers read its entries in parallel without holding any of them in memory
+		private void queueArchiveEntries(Asset archiveAsset) throws IOException, InterruptedException {
+			String parentPath = ResourceUtil.getParent(archiveAsset.getPath());
+			archiveFile = File.createTempFile("product-ingest", ".zip");
+			try (InputStream inputStream = archiveAsset.getOriginal().getStream()) {
+				FileUtils.copyInputStreamToFile(inputStream, archiveFile);
+			}
+			archive = new ZipFile(archiveFile);
+
+			List<ZipEntry> xmlEntries = new ArrayList<>();
+			for(ZipEntry entry : Collections.list(archive.entries())) {
+				if(!entry.isDirectory() && entry.getName().toLowerCase().endsWith(XML_EXTENSION)) {
+					xmlEntries.add(entry);
+				}
+			}
+			context.initProgress(xmlEntries.size(), -1);
+			for(ZipEntry entry : xmlEntries) {
+				String fileName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+				if(context.isStopped()
+						|| !queue(new SourceFile(ProductImporter.getSourceName(fileName), parentPath, archiveAsset.getPath(), archive, entry.getName()))) {
+					return;
+				}
+			}
+		}
+
+		private void closeArchive() {
+			try {
+				if(archive != null) {
+					archive.close();
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Failed closing spooled product archive {}", archiveFile, e);
+			}
+			if(archiveFile != null && !archiveFile.delete()) {
+				archiveFile.deleteOnExit();
+			}
+		}
+
+		private boolean queue(SourceFile sourceFile) throws InterruptedException {
+			if(!offer(sourceFiles, sourceFile)) {
+				return false;
+			}
+			filesQueued.incrementAndGet();
+			return true;
+		}
+
+		private void collectXmlAssets(Resource folder, List<Resource> xmlAssets) {
+			for(Resource child : folder.getChildren()) {
+				Asset asset = child.adaptTo(Asset.class);
+				if(asset != null) {
+					if(ProductImporter.isXmlMimeType(asset.getMimeType())) {
+						xmlAssets.add(child);
+					}
+				} else if(!child.getName().startsWith("jcr:")) {
+					collectXmlAssets(child, xmlAssets);
+				}
+			}
+		}
+
+		// Parser thread: reads products from queued files and routes them to the writer owning their name
+		private void parse() {
+			try (ResourceResolver resourceResolver = getServiceResolver()) {
+				for(SourceFile sourceFile = poll(sourceFiles); sourceFile != null && sourceFile != END_OF_FILES; sourceFile = poll(sourceFiles)) {
+					String parentPath = sourceFile.getParentPath();
+					String sourcePath = sourceFile.getAssetPath();
+					try (InputStream inputStream = sourceFile.open(resourceResolver)) {
+						productImporter.readProducts(sourceFile.getSourceName(), inputStream, (index, name, title, elements) -> {
+							BlockingQueue<ProductRecord> writerQueue = writerQueues.get(Math.abs(name.hashCode() % writerQueues.size()));
+							try {
+								return offer(writerQueue, new ProductRecord(parentPath, sourcePath, name, title, elements)) && !context.isStopped();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								return false;
+							}
+						});
+						filesParsed.incrementAndGet();
+					} catch (ProductImportException | IOException e) {
+						LOGGER.error("Failed parsing product source {}", sourceFile.getSourceName(), e);
+						filesFailed.incrementAndGet();
+					}
+				}
+			} catch (LoginException e) {
+				LOGGER.error("Failed getting service resolver for product ingest parser", e);
+				fail("Failed getting service resolver for a parser: " + e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error("Product ingest parser failed", e);
+				fail("Product ingest parser failed: " + e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				parsersDone.countDown();
+			}
+		}
+
+		// Writer thread: upserts the products routed to it and commits them in batches. A writer that can't go on
+		// fails the run and drops what is left in its queue, so no parser stays blocked on it
+		private void write(BlockingQueue<ProductRecord> writerQueue) throws InterruptedException {
+			try (ServiceResolverPool.Lease lease = productImporter.acquireResolver()) {
+				writeAll(writerQueue, productImporter.openTarget(lease.getResourceResolver()));
+			} catch (ProductImportException e) {
+				LOGGER.error("Failed opening product ingest writer", e);
+				fail("Failed opening a writer: " + e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error("Product ingest writer failed", e);
+				fail("Product ingest writer failed: " + e);
+			} finally {
+				if(failure.get() != null) {
+					results.get(UpsertResult.FAILED).addAndGet(writerQueue.size());
+					writerQueue.clear();
+				}
+			}
+		}
+
+		private void writeAll(BlockingQueue<ProductRecord> writerQueue, ImportTarget target) throws InterruptedException {
+			ResourceResolver resourceResolver = target.getResourceResolver();
+			int batchSize = productImporter.getBatchSize();
+			// Created and updated products are only counted once their batch is committed
+			int[] pending = new int[UpsertResult.values().length];
+			for(ProductRecord record = poll(writerQueue); record != null && record != END_OF_PRODUCTS; record = poll(writerQueue)) {
+				Resource parentResource = resourceResolver.getResource(record.getParentPath());
+				UpsertResult result = parentResource == null ? UpsertResult.FAILED
+						: productImporter.upsertProduct(target, parentResource, record.getSourcePath(), record.getName(), record.getTitle(), record.getElements());
+				if(result == UpsertResult.CREATED || result == UpsertResult.UPDATED) {
+					pending[result.ordinal()]++;
+				} else {
+					results.get(result).incrementAndGet();
+				}
+				if(target.getPendingCount() >= batchSize) {
+					commit(target, pending);
+				}
+			}
+			commit(target, pending);
+		}
+
+		private void commit(ImportTarget target, int[] pending) {
+			if(target.getPendingCount() == 0) {
+				return;
+			}
+			try {
+				productImporter.commit(target);
+				results.get(UpsertResult.CREATED).addAndGet(pending[UpsertResult.CREATED.ordinal()]);
+				results.get(UpsertResult.UPDATED).addAndGet(pending[UpsertResult.UPDATED.ordinal()]);
+			} catch (PersistenceException e) {
+				int failed = pending[UpsertResult.CREATED.ordinal()] + pending[UpsertResult.UPDATED.ordinal()];
+				LOGGER.error("Failed committing {} ingested products", failed, e);
+				results.get(UpsertResult.FAILED).addAndGet(failed);
+			}
+			pending[UpsertResult.CREATED.ordinal()] = 0;
+			pending[UpsertResult.UPDATED.ordinal()] = 0;
+		}
+
+		private int reportProgress(int filesReported) {
+			int filesDone = filesParsed.get() + filesFailed.get();
+			if(filesDone > filesReported) {
+				context.incrementProgressCount(filesDone - filesReported);
+			}
+			return filesDone;
+		}
+
+		String getSummary() {
+			return String.format("Parsed %d of %d files (%d failed). Products created: %d, updated: %d, unchanged: %d, invalid: %d, failed: %d",
+					filesParsed.get(), filesQueued.get(), filesFailed.get(),
+					results.get(UpsertResult.CREATED).get(), results.get(UpsertResult.UPDATED).get(),
+					results.get(UpsertResult.UNCHANGED).get(), results.get(UpsertResult.INVALID).get(), results.get(UpsertResult.FAILED).get());
+		}
+	}
+
+	private static boolean isArchive(Asset asset) {
+		return ZIP_MIME_TYPE.equals(asset.getMimeType()) || asset.getName().toLowerCase().endsWith(".zip");
+	}
+
+	/**
+	 * An xml file to parse, either a DAM asset or an entry of a spooled archive asset.
+	 */
+	private static class SourceFile {
+
+		private final String sourceName;
+		private final String parentPath;
+		private final String assetPath;
+		private final ZipFile archive;
+		private final String entryName;
+
+		SourceFile(String sourceName, String parentPath, String assetPath, ZipFile archive, String entryName) {
+			this.sourceName = sourceName;
+			this.parentPath = parentPath;
+			this.assetPath = assetPath;
+			this.archive = archive;
+			this.entryName = entryName;
+		}
+
+		String getSourceName() {
+			return sourceName;
+		}
+
+		String getParentPath() {
+			return parentPath;
+		}
+
+		// The xml asset, or the archive asset for an archive entry
+		String getAssetPath() {
+			return assetPath;
+		}
+
+		InputStream open(ResourceResolver resourceResolver) throws IOException {
+			if(archive != null) {
+				return archive.getInputStream(archive.getEntry(entryName));
+			}
+			Resource assetResource = resourceResolver.getResource(assetPath);
+			Asset asset = assetResource == null ? null : assetResource.adaptTo(Asset.class);
+			Rendition xmlRendition = asset == null ? null : ProductImporter.getXmlRendition(asset);
+			if(xmlRendition == null) {
+				throw new IOException("No xml rendition found for " + assetPath);
+			}
+			return xmlRendition.getStream();
+		}
+	}
+
+	/**
+	 * A parsed product on its way to a writer.
+	 */
+	private static class ProductRecord {
+
+		private final String parentPath;
+		private final String sourcePath;
+		private final String name;
+		private final String title;
+		private final Map<String, String> elements;
+
+		ProductRecord(String parentPath, String sourcePath, String name, String title, Map<String, String> elements) {
+			this.parentPath = parentPath;
+			this.sourcePath = sourcePath;
+			this.name = name;
+			this.title = title;
+			this.elements = elements;
+		}
+
+		String getParentPath() {
+			return parentPath;
+		}
+
+		String getSourcePath() {
+			return sourcePath;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getTitle() {
+			return title;
+		}
+
+		Map<String, String> getElements() {
+			return elements;
+		}
+	}
+}
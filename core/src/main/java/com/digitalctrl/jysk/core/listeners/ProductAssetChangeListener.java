@@ -0,0 +1,198 @@
+package com.digitalctrl.jysk.core.listeners;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.digitalctrl.jysk.core.jobs.ProductImportJobExecutor;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
+
+/**
+ * Imports product xml assets uploaded or replaced below /content/dam/jysk. Changes to the original rendition of an
+ * asset are collected per asset, and an asset is only imported once no change came in for the quiet period, so the
+ * burst of changes of one upload leads to a single import. Due assets are imported in batches by the scheduled run,
+ * or queued as import jobs when the importer is configured for asynchronous execution.
+ */
+@Designate(ocd = ProductAssetChangeListener.Config.class)
+@Component(service = { ResourceChangeListener.class, Runnable.class },
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=Debounced import of changed product xml assets",
+				ResourceChangeListener.PATHS + "=" + ProductAssetChangeListener.DAM_ROOT,
+				ResourceChangeListener.CHANGES + "=ADDED",
+				ResourceChangeListener.CHANGES + "=CHANGED"
+		})
+public class ProductAssetChangeListener implements ResourceChangeListener, Runnable {
+
+	static final String DAM_ROOT = "/content/dam/jysk";
+
+	private static final String ORIGINAL_RENDITION = "/jcr:content/renditions/original";
+
+	@ObjectClassDefinition(name = "JYSK Product Asset Change Listener",
+			description = "Imports product xml assets below " + DAM_ROOT + " once their changes have settled")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Period", description = "Seconds between checks for assets due for import")
+		long scheduler_period() default 1;
+
+		@AttributeDefinition(name = "Concurrent task", description = "Whether or not to schedule this task concurrently")
+		boolean scheduler_concurrent() default false;
+
+		@AttributeDefinition(name = "Quiet period", description = "Milliseconds without changes after which an asset is imported")
+		long quietPeriod() default 3000;
+
+		@AttributeDefinition(name = "Maximum delay", description = "Milliseconds after the first change after which an asset is imported even if it keeps changing")
+		long maxDelay() default 30000;
+
+		@AttributeDefinition(name = "Batch size", description = "Maximum number of assets imported per run, the remaining ones are imported in the next runs")
+		int batchSize() default 100;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductAssetChangeListener.class);
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	ProductImporter productImporter;
+
+	@Reference
+	ProductImportJobExecutor importJobExecutor;
+
+	private final ConcurrentMap<String, PendingAsset> pendingAssets = new ConcurrentHashMap<>();
+
+	private volatile long quietPeriod;
+	private volatile long maxDelay;
+	private volatile int batchSize;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		quietPeriod = Math.max(0, config.quietPeriod());
+		maxDelay = Math.max(quietPeriod, config.maxDelay());
+		batchSize = Math.max(1, config.batchSize());
+	}
+
+	@Override
+	public void onChange(List<ResourceChange> changes) {
+		long now = System.currentTimeMillis();
+		for(ResourceChange change : changes) {
+			String assetPath = getAssetPath(change.getPath());
+			if(assetPath != null) {
+				PendingAsset changed = new PendingAsset(now, now);
+				pendingAssets.merge(assetPath, changed, (pending, latest) -> new PendingAsset(pending.firstChange, latest.lastChange));
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		List<String> batch = takeDueAssets(System.currentTimeMillis());
+		if(batch.isEmpty()) {
+			return;
+		}
+
+		LOGGER.info("Importing {} changed product assets, {} pending", batch.size(), pendingAssets.size());
+		try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(
+				Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "xmlProcessing"))) {
+			for(String assetPath : batch) {
+				importAsset(resourceResolver, assetPath);
+			}
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver, returning {} assets to the pending ones", batch.size(), e);
+			long now = System.currentTimeMillis();
+			for(String assetPath : batch) {
+				pendingAssets.putIfAbsent(assetPath, new PendingAsset(now, now));
+			}
+		}
+	}
+
+	// Removes the assets whose changes have settled, or that have waited for the maximum delay, from the pending ones
+	private List<String> takeDueAssets(long now) {
+		List<String> dueAssets = new ArrayList<>();
+		for(Map.Entry<String, PendingAsset> pendingAsset : pendingAssets.entrySet()) {
+			if(dueAssets.size() >= batchSize) {
+				break;
+			}
+			// A change coming in meanwhile replaces the entry, which keeps the asset pending
+			if(pendingAsset.getValue().isDue(now, quietPeriod, maxDelay) && pendingAssets.remove(pendingAsset.getKey(), pendingAsset.getValue())) {
+				dueAssets.add(pendingAsset.getKey());
+			}
+		}
+		Collections.sort(dueAssets);
+		return dueAssets;
+	}
+
+	private void importAsset(ResourceResolver resourceResolver, String assetPath) {
+		Resource assetResource = resourceResolver.getResource(assetPath);
+		Asset asset = assetResource == null ? null : assetResource.adaptTo(Asset.class);
+		if(asset == null || !ProductImporter.isXmlMimeType(asset.getMimeType())) {
+			return;
+		}
+		if(productImporter.isAsyncExecution()) {
+			try {
+				importJobExecutor.enqueue(assetPath);
+			} catch (ProductImportException e) {
+				// A full queue keeps the asset pending, so a later run queues it
+				LOGGER.warn("Failed queuing import of product asset {}, keeping it pending", assetPath, e);
+				long now = System.currentTimeMillis();
+				pendingAssets.putIfAbsent(assetPath, new PendingAsset(now, now));
+			}
+			return;
+		}
+		try {
+			productImporter.importAsset(asset);
+		} catch (ProductImportException e) {
+			LOGGER.error("Failed importing product asset {}", assetPath, e);
+		}
+	}
+
+	// Maps a change to the original rendition of an asset, or to anything below it, to the path of the asset
+	static String getAssetPath(String changedPath) {
+		int renditionIndex = changedPath.indexOf(ORIGINAL_RENDITION);
+		if(renditionIndex <= 0 || changedPath.contains("/subassets/")) {
+			return null;
+		}
+		int renditionEnd = renditionIndex + ORIGINAL_RENDITION.length();
+		if(renditionEnd != changedPath.length() && changedPath.charAt(renditionEnd) != '/') {
+			return null;
+		}
+		return changedPath.substring(0, renditionIndex);
+	}
+
+	private static final class PendingAsset {
+
+		private final long firstChange;
+		private final long lastChange;
+
+		PendingAsset(long firstChange, long lastChange) {
+			this.firstChange = firstChange;
+			this.lastChange = lastChange;
+		}
+
+		boolean isDue(long now, long quietPeriod, long maxDelay) {
+			return now - lastChange >= quietPeriod || now - firstChange >= maxDelay;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.digitalctrl.jysk.core.models;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.models.annotations.Model;
+import org.apache.sling.models.annotations.Optional;
+import org.apache.sling.models.annotations.injectorspecific.Self;
+
+import com.digitalctrl.jysk.core.products.ProductEntry;
+import com.digitalctrl.jysk.core.products.ProductIndex;
+
+/**
+ * Products matching the colour, price and discount filters configured on a component, looked up in the
+ * {@link ProductIndex}. Only the products the resolver of the component can read are listed.
+ */
+@Model(adaptables=Resource.class)
+public class ProductListModel {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    @Self
+    private Resource resource;
+
+    @Inject
+    private ProductIndex productIndex;
+
+    @Inject @Optional
+    private String color;
+
+    @Inject @Optional
+    private Double minPrice;
+
+    @Inject @Optional
+    private Double maxPrice;
+
+    @Inject @Optional
+    private Double minDiscount;
+
+    @Inject @Optional
+    private Integer limit;
+
+    private List<ProductEntry> products;
+
+    private int total;
+
+    @PostConstruct
+    protected void init() {
+        List<ProductEntry> matches = ProductIndex.filterReadable(resource.getResourceResolver(), productIndex.find(color,
+                minPrice == null ? Double.NEGATIVE_INFINITY : minPrice,
+                maxPrice == null ? Double.POSITIVE_INFINITY : maxPrice,
+                minDiscount == null ? Double.NEGATIVE_INFINITY : minDiscount,
+                Double.POSITIVE_INFINITY));
+        total = matches.size();
+        int maxProducts = limit == null || limit <= 0 ? DEFAULT_LIMIT : limit;
+        products = matches.subList(0, Math.min(maxProducts, total));
+    }
+
+    public List<ProductEntry> getProducts() {
+        return products;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,71 @@
+package com.digitalctrl.jysk.core.models;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.models.annotations.Model;
+import org.apache.sling.models.annotations.injectorspecific.Self;
+
+import com.digitalctrl.jysk.core.products.ProductCache;
+import com.digitalctrl.jysk.core.products.ProductEntry;
+
+/**
+ * A jysk-product content fragment for rendering product teasers. The typed values come from the shared
+ * {@link ProductCache}, so a fragment is only read again once it changed.
+ */
+@Model(adaptables=Resource.class)
+public class ProductModel {
+
+    @Self
+    private Resource resource;
+
+    @Inject
+    private ProductCache productCache;
+
+    private ProductEntry product;
+
+    @PostConstruct
+    protected void init() {
+        product = productCache.get(resource);
+    }
+
+    /**
+     * @return false if the resource is not a product fragment, all values are null then
+     */
+    public boolean isValid() {
+        return product != null;
+    }
+
+    public String getPath() {
+        return resource.getPath();
+    }
+
+    public String getSku() {
+        return product == null ? null : product.getSku();
+    }
+
+    public String getTitle() {
+        return product == null ? null : product.getTitle();
+    }
+
+    public String getDescription() {
+        return product == null ? null : product.getDescription();
+    }
+
+    public String getAssetReference() {
+        return product == null ? null : product.getAssetReference();
+    }
+
+    public String getColor() {
+        return product == null ? null : product.getColor();
+    }
+
+    public Double getPrice() {
+        return product == null || Double.isNaN(product.getPrice()) ? null : product.getPrice();
+    }
+
+    public Double getDiscount() {
+        return product == null || Double.isNaN(product.getDiscount()) ? null : product.getDiscount();
+    }
+}
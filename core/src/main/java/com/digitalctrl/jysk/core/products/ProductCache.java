@@ -0,0 +1,141 @@
+package com.digitalctrl.jysk.core.products;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.api.resource.Resource;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Size-bounded LRU cache of the {@link ProductEntry} of jysk-product content fragments, shared by all requests that
+ * render products. An entry is keyed by the fragment path and only used while the fragment's jcr:lastModified is
+ * unchanged, so a changed fragment is read again on its next lookup. Lookups go through a resource of the caller,
+ * so the cache never hands out a product the caller can't read.
+ */
+@Designate(ocd = ProductCache.Config.class)
+@Component(service = ProductCache.class)
+public class ProductCache {
+
+	@ObjectClassDefinition(name = "JYSK Product Cache",
+			description = "Shared cache of the product fragments read while rendering")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Maximum entries", description = "Number of products kept, the least recently used ones are evicted first")
+		int maxEntries() default 5000;
+
+		@AttributeDefinition(name = "Content fragment model", description = "Model of the product content fragments")
+		String contentFragmentModel() default "/conf/jysk/settings/dam/cfm/models/jysk-product";
+	}
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private volatile Map<String, CachedProduct> entries = createEntries(1);
+	private volatile int maxEntries;
+	private volatile String modelPath;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		maxEntries = Math.max(1, config.maxEntries());
+		modelPath = config.contentFragmentModel();
+		entries = createEntries(maxEntries);
+	}
+
+	/**
+	 * @return the product of a content fragment, or null if the resource is not a product fragment
+	 */
+	public ProductEntry get(Resource resource) {
+		String path = resource.getPath();
+		long lastModified = ProductEntry.readLastModified(resource);
+
+		Map<String, CachedProduct> currentEntries = entries;
+		CachedProduct cached;
+		synchronized(currentEntries) {
+			cached = currentEntries.get(path);
+		}
+		if(cached != null && cached.lastModified == lastModified) {
+			hits.increment();
+			return cached.product;
+		}
+
+		// Reading happens outside the lock, two threads missing the same fragment both read it
+		misses.increment();
+		ProductEntry product = ProductEntry.read(resource, modelPath);
+		synchronized(currentEntries) {
+			currentEntries.put(path, new CachedProduct(lastModified, product));
+		}
+		return product;
+	}
+
+	public int getSize() {
+		Map<String, CachedProduct> currentEntries = entries;
+		synchronized(currentEntries) {
+			return currentEntries.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Drops all cached products and resets the statistics.
+	 */
+	public void clear() {
+		Map<String, CachedProduct> currentEntries = entries;
+		synchronized(currentEntries) {
+			currentEntries.clear();
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	private Map<String, CachedProduct> createEntries(int capacity) {
+		return new LinkedHashMap<String, CachedProduct>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedProduct> eldest) {
+				if(size() > capacity) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	private static final class CachedProduct {
+
+		private final long lastModified;
+		// Null for resources that are not product fragments, so they are not read again either
+		private final ProductEntry product;
+
+		CachedProduct(long lastModified, ProductEntry product) {
+			this.lastModified = lastModified;
+			this.product = product;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.digitalctrl.jysk.core.products;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("JYSK cache of the product fragments read while rendering")
+public interface ProductCacheMBean {
+
+	@Description("Number of cached products")
+	int getSize();
+
+	@Description("Maximum number of cached products")
+	int getMaxEntries();
+
+	@Description("Lookups answered from the cache")
+	long getHits();
+
+	@Description("Lookups that read the fragment, because it wasn't cached or changed since")
+	long getMisses();
+
+	@Description("Products evicted to stay within the maximum number of entries")
+	long getEvictions();
+
+	@Description("Share of lookups answered from the cache")
+	double getHitRatio();
+
+	@Description("Drop all cached products and reset the statistics")
+	void clear();
+}
@@ -0,0 +1,62 @@
+package com.digitalctrl.jysk.core.products;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+
+/**
+ * Exposes the statistics of the {@link ProductCache} in JMX.
+ */
+@Component(service = ProductCacheMBean.class,
+		property = {
+				"jmx.objectname=com.digitalctrl.jysk:type=ProductCache"
+		})
+public class ProductCacheMBeanImpl extends AnnotatedStandardMBean implements ProductCacheMBean {
+
+	@Reference
+	ProductCache productCache;
+
+	public ProductCacheMBeanImpl() throws NotCompliantMBeanException {
+		super(ProductCacheMBean.class);
+	}
+
+	@Override
+	public int getSize() {
+		return productCache.getSize();
+	}
+
+	@Override
+	public int getMaxEntries() {
+		return productCache.getMaxEntries();
+	}
+
+	@Override
+	public long getHits() {
+		return productCache.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return productCache.getMisses();
+	}
+
+	@Override
+	public long getEvictions() {
+		return productCache.getEvictions();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = productCache.getHits();
+		long lookups = hits + productCache.getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public void clear() {
+		productCache.clear();
+	}
+}
@@ -0,0 +1,120 @@
+package com.digitalctrl.jysk.core.products;
+
+import java.util.Calendar;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import com.day.cq.commons.jcr.JcrConstants;
+
+/**
+ * The indexed values of one jysk-product content fragment, read straight from its master variation.
+ */
+public final class ProductEntry {
+
+	private static final String PN_CONTENT_FRAGMENT = "contentFragment";
+	private static final String PN_MODEL = "cq:model";
+	private static final String DATA_MASTER = "data/master";
+
+	private final String path;
+	private final String sku;
+	private final String title;
+	private final String description;
+	private final String assetReference;
+	private final String color;
+	private final double price;
+	private final double discount;
+	private final long lastModified;
+
+	ProductEntry(String path, String sku, String title, String description, String assetReference, String color, double price, double discount, long lastModified) {
+		this.path = path;
+		this.sku = sku;
+		this.title = title;
+		this.description = description;
+		this.assetReference = assetReference;
+		this.color = color;
+		this.price = price;
+		this.discount = discount;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads the entry of a content fragment of the given model.
+	 *
+	 * @return null if the resource is not a content fragment of the model
+	 */
+	public static ProductEntry read(Resource resource, String modelPath) {
+		Resource contentResource = resource.getChild(JcrConstants.JCR_CONTENT);
+		if(contentResource == null || !contentResource.getValueMap().get(PN_CONTENT_FRAGMENT, false)) {
+			return null;
+		}
+		Resource masterResource = contentResource.getChild(DATA_MASTER);
+		if(masterResource == null || !modelPath.equals(masterResource.getParent().getValueMap().get(PN_MODEL, String.class))) {
+			return null;
+		}
+
+		ValueMap master = masterResource.getValueMap();
+		return new ProductEntry(resource.getPath(), master.get("sku", String.class), master.get("title", String.class),
+				master.get("description", String.class), master.get("assetReference", String.class), master.get("color", String.class),
+				master.get("price", Double.NaN), master.get("discount", Double.NaN), readLastModified(resource));
+	}
+
+	/**
+	 * Reads the time a fragment was last modified without reading its elements.
+	 *
+	 * @return the time in milliseconds, 0 if unknown
+	 */
+	static long readLastModified(Resource resource) {
+		Resource contentResource = resource.getChild(JcrConstants.JCR_CONTENT);
+		Calendar lastModified = contentResource == null ? null : contentResource.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+		if(lastModified == null) {
+			lastModified = resource.getValueMap().get(JcrConstants.JCR_CREATED, Calendar.class);
+		}
+		return lastModified == null ? 0 : lastModified.getTimeInMillis();
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getSku() {
+		return sku;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getAssetReference() {
+		return assetReference;
+	}
+
+	public String getColor() {
+		return color;
+	}
+
+	/**
+	 * @return the price, or NaN if the product has none
+	 */
+	public double getPrice() {
+		return price;
+	}
+
+	/**
+	 * @return the discount, or NaN if the product has none
+	 */
+	public double getDiscount() {
+		return discount;
+	}
+
+	/**
+	 * @return the time the fragment was last modified in milliseconds, 0 if unknown
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,565 @@
+package com.digitalctrl.jysk.core.products;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+
+/**
+ * In-memory index of the jysk-product content fragments, answering SKU, price range, discount range and colour
+ * lookups without repository queries. The index is built by one traversal in the background after activation, lookups
+ * wait until it is done, and afterwards only the fragments named by resource changes are read again, outside the
+ * lock that guards the index.
+ *
+ * Every product gets a small integer id. Prices and discounts are kept as ids sorted by value in primitive arrays,
+ * colours as sorted id postings, so filters combine by walking int arrays.
+ */
+@Designate(ocd = ProductIndex.Config.class)
+@Component(service = { ProductIndex.class, ResourceChangeListener.class },
+		immediate = true,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=In-memory index of the product content fragments",
+				ResourceChangeListener.CHANGES + "=ADDED",
+				ResourceChangeListener.CHANGES + "=CHANGED",
+				ResourceChangeListener.CHANGES + "=REMOVED"
+		})
+public class ProductIndex implements ResourceChangeListener {
+
+	@ObjectClassDefinition(name = "JYSK Product Index",
+			description = "In-memory index of the product content fragments for SKU, price, discount and colour lookups")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Product folders", description = "Folders holding the product content fragments")
+		String[] resource_paths() default { "/content/dam/jysk/products" };
+
+		@AttributeDefinition(name = "Content fragment model", description = "Only fragments of this model are indexed")
+		String contentFragmentModel() default "/conf/jysk/settings/dam/cfm/models/jysk-product";
+	}
+
+	public static final Comparator<ProductEntry> BY_PRICE = Comparator.comparingDouble(ProductEntry::getPrice).thenComparing(ProductEntry::getPath);
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductIndex.class);
+
+	private static final String JCR_CONTENT_SEGMENT = "/" + JcrConstants.JCR_CONTENT;
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock
+	private Products products = new Products();
+	// The changes received while the initial traversal runs, applied once it is done. Guarded by lock
+	private List<ResourceChange> changesDuringBuild;
+
+	private final CountDownLatch built = new CountDownLatch(1);
+	private volatile boolean deactivated;
+
+	private String modelPath;
+
+	@Activate
+	protected void activate(final Config config) {
+		modelPath = config.contentFragmentModel();
+		lock.writeLock().lock();
+		try {
+			changesDuringBuild = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		// The traversal of a large catalogue would hold up the activation and every reader of the index
+		Thread buildThread = new Thread(() -> build(config.resource_paths()), "JYSK product index");
+		buildThread.setDaemon(true);
+		buildThread.start();
+	}
+
+	@Deactivate
+	protected void deactivate() {
+		deactivated = true;
+	}
+
+	// Traverses the product folders into a new index without holding the lock, and swaps it in
+	private void build(String[] roots) {
+		long start = System.currentTimeMillis();
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Products builtProducts = new Products();
+			for(String root : roots) {
+				Resource rootResource = resourceResolver.getResource(root);
+				if(rootResource != null) {
+					for(ProductEntry entry : readTree(rootResource).entries) {
+						builtProducts.put(entry);
+					}
+				}
+			}
+
+			List<ResourceChange> missedChanges;
+			lock.writeLock().lock();
+			try {
+				products = builtProducts;
+				missedChanges = changesDuringBuild;
+				changesDuringBuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			apply(missedChanges, resourceResolver);
+			LOGGER.info("Indexed {} products in {}ms", builtProducts.idsByPath.size(), System.currentTimeMillis() - start);
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver, the product index stays empty", e);
+			lock.writeLock().lock();
+			try {
+				changesDuringBuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			built.countDown();
+		}
+	}
+
+	@Override
+	public void onChange(List<ResourceChange> changes) {
+		lock.writeLock().lock();
+		try {
+			if(changesDuringBuild != null) {
+				changesDuringBuild.addAll(changes);
+				return;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			apply(changes, resourceResolver);
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver, {} product changes are not indexed", changes.size(), e);
+		}
+	}
+
+	// Reads the changed fragments without holding the lock, and only updates the index under it
+	private void apply(List<ResourceChange> changes, ResourceResolver resourceResolver) {
+		// Several changes below one fragment only need one read of the fragment
+		Set<String> changedPaths = new LinkedHashSet<>();
+		for(ResourceChange change : changes) {
+			changedPaths.add(getFragmentPath(change.getPath()));
+		}
+
+		List<ChangedTree> changedTrees = new ArrayList<>(changedPaths.size());
+		for(String changedPath : changedPaths) {
+			Resource changedResource = resourceResolver.getResource(changedPath);
+			changedTrees.add(changedResource == null ? new ChangedTree(changedPath, null) : readTree(changedResource));
+		}
+
+		lock.writeLock().lock();
+		try {
+			for(ChangedTree changedTree : changedTrees) {
+				if(changedTree.entries == null) {
+					products.removeTree(changedTree.path);
+					continue;
+				}
+				for(ProductEntry entry : changedTree.entries) {
+					products.put(entry);
+				}
+				// No longer products of the indexed model
+				for(String otherPath : changedTree.otherPaths) {
+					products.remove(otherPath);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Reads a fragment, or every fragment below a folder
+	private ChangedTree readTree(Resource resource) {
+		ChangedTree tree = new ChangedTree(resource.getPath(), new ArrayList<>());
+		readTree(resource, tree);
+		return tree;
+	}
+
+	private void readTree(Resource resource, ChangedTree tree) {
+		if(deactivated) {
+			return;
+		}
+		ProductEntry entry = ProductEntry.read(resource, modelPath);
+		if(entry != null) {
+			tree.entries.add(entry);
+			return;
+		}
+		tree.otherPaths.add(resource.getPath());
+		for(Resource child : resource.getChildren()) {
+			if(!JcrConstants.JCR_CONTENT.equals(child.getName())) {
+				readTree(child, tree);
+			}
+		}
+	}
+
+	/**
+	 * @return whether the initial traversal finished, until then lookups wait for it
+	 */
+	public boolean isBuilt() {
+		return built.getCount() == 0;
+	}
+
+	public int size() {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			return products.idsByPath.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the product with a SKU, one of them if several fragments share it
+	 */
+	public ProductEntry getBySku(String sku) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			int[] ids = products.idsBySku.get(sku);
+			return ids == null ? null : products.entriesById[ids[0]];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public ProductEntry getByPath(String path) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			Integer id = products.idsByPath.get(path);
+			return id == null ? null : products.entriesById[id];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the products below a folder, ordered by path
+	 */
+	public List<ProductEntry> findByFolder(String folderPath) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			List<ProductEntry> folderProducts = new ArrayList<>();
+			for(int id : products.getSubtree(folderPath).values()) {
+				folderProducts.add(products.entriesById[id]);
+			}
+			return folderProducts;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the products with a price between min and max inclusive, ordered by price
+	 */
+	public List<ProductEntry> findByPrice(double min, double max) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			return products.toEntries(products.priceIndex.range(min, max));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the products with a discount between min and max inclusive, ordered by discount
+	 */
+	public List<ProductEntry> findByDiscount(double min, double max) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			return products.toEntries(products.discountIndex.range(min, max));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<ProductEntry> findByColor(String color) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			int[] ids = products.idsByColor.get(normalizeColor(color));
+			return ids == null ? Collections.<ProductEntry> emptyList() : products.toEntries(ids);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the products matching all given criteria, ordered by price. Products without a price or discount only
+	 * match if the corresponding range is unbounded.
+	 *
+	 * @param color the colour to match, or null for any colour
+	 * @param minPrice lower price bound, {@link Double#NEGATIVE_INFINITY} for none
+	 * @param maxPrice upper price bound, {@link Double#POSITIVE_INFINITY} for none
+	 * @param minDiscount lower discount bound, {@link Double#NEGATIVE_INFINITY} for none
+	 * @param maxDiscount upper discount bound, {@link Double#POSITIVE_INFINITY} for none
+	 */
+	public List<ProductEntry> find(String color, double minPrice, double maxPrice, double minDiscount, double maxDiscount) {
+		boolean priceBounded = minPrice > Double.NEGATIVE_INFINITY || maxPrice < Double.POSITIVE_INFINITY;
+		boolean discountBounded = minDiscount > Double.NEGATIVE_INFINITY || maxDiscount < Double.POSITIVE_INFINITY;
+
+		List<ProductEntry> matches = new ArrayList<>();
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			// Start from the narrowest lookup and check the remaining criteria on the entries
+			int[] candidates;
+			if(color != null) {
+				candidates = products.idsByColor.get(normalizeColor(color));
+				if(candidates == null) {
+					return matches;
+				}
+			} else if(priceBounded) {
+				candidates = products.priceIndex.range(minPrice, maxPrice);
+			} else if(discountBounded) {
+				candidates = products.discountIndex.range(minDiscount, maxDiscount);
+			} else {
+				candidates = products.allIds();
+			}
+
+			for(int id : candidates) {
+				ProductEntry entry = products.entriesById[id];
+				if(priceBounded && !inRange(entry.getPrice(), minPrice, maxPrice)) {
+					continue;
+				}
+				if(discountBounded && !inRange(entry.getDiscount(), minDiscount, maxDiscount)) {
+					continue;
+				}
+				matches.add(entry);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		matches.sort(BY_PRICE);
+		return matches;
+	}
+
+	/**
+	 * Drops the products a resolver can't read. The index is read by a service user, so lookups made for a caller are
+	 * filtered with the caller's resolver before they are handed out.
+	 */
+	public static List<ProductEntry> filterReadable(ResourceResolver resourceResolver, List<ProductEntry> products) {
+		List<ProductEntry> readable = new ArrayList<>(products.size());
+		for(ProductEntry product : products) {
+			if(resourceResolver.getResource(product.getPath()) != null) {
+				readable.add(product);
+			}
+		}
+		return readable;
+	}
+
+	private void awaitBuilt() {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				built.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "productIndex"));
+	}
+
+	// Changes below the jcr:content of a fragment are changes of the fragment
+	private static String getFragmentPath(String changedPath) {
+		int contentIndex = changedPath.indexOf(JCR_CONTENT_SEGMENT + "/");
+		if(contentIndex < 0 && changedPath.endsWith(JCR_CONTENT_SEGMENT)) {
+			contentIndex = changedPath.length() - JCR_CONTENT_SEGMENT.length();
+		}
+		return contentIndex < 0 ? changedPath : changedPath.substring(0, contentIndex);
+	}
+
+	private static boolean inRange(double value, double min, double max) {
+		return value >= min && value <= max;
+	}
+
+	private static String normalizeColor(String color) {
+		return color.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static int[] insert(int[] ids, int id) {
+		int position = Arrays.binarySearch(ids, id);
+		if(position >= 0) {
+			return ids;
+		}
+		position = -(position + 1);
+		int[] inserted = new int[ids.length + 1];
+		System.arraycopy(ids, 0, inserted, 0, position);
+		inserted[position] = id;
+		System.arraycopy(ids, position, inserted, position + 1, ids.length - position);
+		return inserted;
+	}
+
+	private static int[] delete(int[] ids, int id) {
+		int position = Arrays.binarySearch(ids, id);
+		if(position < 0) {
+			return ids;
+		}
+		int[] remaining = new int[ids.length - 1];
+		System.arraycopy(ids, 0, remaining, 0, position);
+		System.arraycopy(ids, position + 1, remaining, position, ids.length - position - 1);
+		return remaining;
+	}
+
+	/**
+	 * The indexed products and their lookups. Fragments sharing a SKU are all kept under it, so removing one of them
+	 * leaves the SKU resolving to another.
+	 */
+	private static final class Products {
+
+		private ProductEntry[] entriesById = new ProductEntry[64];
+		private final Deque<Integer> freeIds = new ArrayDeque<>();
+		private int nextId;
+		private final NavigableMap<String, Integer> idsByPath = new TreeMap<>();
+		private final Map<String, int[]> idsBySku = new HashMap<>();
+		private final Map<String, int[]> idsByColor = new HashMap<>();
+		private final SortedDoubleIndex priceIndex = new SortedDoubleIndex();
+		private final SortedDoubleIndex discountIndex = new SortedDoubleIndex();
+
+		private void removeTree(String path) {
+			remove(path);
+			for(String removedPath : new ArrayList<>(getSubtree(path).keySet())) {
+				remove(removedPath);
+			}
+		}
+
+		// The indexed paths below a path, '0' being the character following '/'
+		private NavigableMap<String, Integer> getSubtree(String path) {
+			return idsByPath.subMap(path + "/", true, path + "0", false);
+		}
+
+		private void put(ProductEntry entry) {
+			Integer existingId = idsByPath.get(entry.getPath());
+			int id = existingId == null ? allocateId() : existingId;
+			if(existingId != null) {
+				unindex(id, entriesById[id]);
+			}
+
+			entriesById[id] = entry;
+			idsByPath.put(entry.getPath(), id);
+			if(entry.getSku() != null) {
+				idsBySku.merge(entry.getSku(), new int[] { id }, (ids, added) -> insert(ids, id));
+			}
+			if(entry.getColor() != null) {
+				idsByColor.merge(normalizeColor(entry.getColor()), new int[] { id }, (ids, added) -> insert(ids, id));
+			}
+			priceIndex.add(entry.getPrice(), id);
+			discountIndex.add(entry.getDiscount(), id);
+		}
+
+		private void remove(String path) {
+			Integer id = idsByPath.remove(path);
+			if(id == null) {
+				return;
+			}
+			unindex(id, entriesById[id]);
+			entriesById[id] = null;
+			freeIds.push(id);
+		}
+
+		// Drops an entry from the lookups, leaving its id allocated
+		private void unindex(int id, ProductEntry entry) {
+			if(entry.getSku() != null) {
+				// Another fragment with the same SKU keeps it
+				idsBySku.computeIfPresent(entry.getSku(), (sku, ids) -> {
+					int[] remaining = delete(ids, id);
+					return remaining.length == 0 ? null : remaining;
+				});
+			}
+			if(entry.getColor() != null) {
+				idsByColor.computeIfPresent(normalizeColor(entry.getColor()), (color, ids) -> {
+					int[] remaining = delete(ids, id);
+					return remaining.length == 0 ? null : remaining;
+				});
+			}
+			priceIndex.remove(entry.getPrice(), id);
+			discountIndex.remove(entry.getDiscount(), id);
+		}
+
+		private int allocateId() {
+			if(!freeIds.isEmpty()) {
+				return freeIds.pop();
+			}
+			if(nextId == entriesById.length) {
+				entriesById = Arrays.copyOf(entriesById, nextId * 2);
+			}
+			return nextId++;
+		}
+
+		private int[] allIds() {
+			int[] ids = new int[idsByPath.size()];
+			int i = 0;
+			for(int id : idsByPath.values()) {
+				ids[i++] = id;
+			}
+			return ids;
+		}
+
+		private List<ProductEntry> toEntries(int[] ids) {
+			List<ProductEntry> entries = new ArrayList<>(ids.length);
+			for(int id : ids) {
+				entries.add(entriesById[id]);
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * The fragments read below a changed path, null entries if the path no longer exists, and the paths read that
+	 * aren't fragments of the indexed model.
+	 */
+	private static final class ChangedTree {
+
+		private final String path;
+		private final List<ProductEntry> entries;
+		private final List<String> otherPaths = new ArrayList<>();
+
+		ChangedTree(String path, List<ProductEntry> entries) {
+			this.path = path;
+			this.entries = entries;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.digitalctrl.jysk.core.products;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * JSON representation of an indexed product, shared by the product endpoints.
+ */
+public final class ProductJson {
+
+	private ProductJson() {
+	}
+
+	public static void write(JsonGenerator json, ProductEntry product) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("path", product.getPath());
+		json.writeStringField("sku", product.getSku());
+		json.writeStringField("title", product.getTitle());
+		json.writeStringField("description", product.getDescription());
+		json.writeStringField("assetReference", product.getAssetReference());
+		json.writeStringField("color", product.getColor());
+		writeNumber(json, "price", product.getPrice());
+		writeNumber(json, "discount", product.getDiscount());
+		json.writeNumberField("lastModified", product.getLastModified());
+		json.writeEndObject();
+	}
+
+	private static void writeNumber(JsonGenerator json, String name, double value) throws IOException {
+		if(Double.isNaN(value)) {
+			json.writeNullField(name);
+		} else {
+			json.writeNumberField(name, value);
+		}
+	}
+}
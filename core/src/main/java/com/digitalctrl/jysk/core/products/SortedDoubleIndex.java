@@ -0,0 +1,104 @@
+package com.digitalctrl.jysk.core.products;
+
+import java.util.Arrays;
+
+/**
+ * Product ids ordered by a double value, in two parallel primitive arrays. Range lookups are two binary searches
+ * and a copy; adding or removing a product shifts the tail of the arrays. Products without a value are not indexed.
+ */
+final class SortedDoubleIndex {
+
+	private double[] values = new double[64];
+	private int[] ids = new int[64];
+	private int size;
+
+	void add(double value, int id) {
+		if(Double.isNaN(value)) {
+			return;
+		}
+		int position = -(find(value, id) + 1);
+		if(position < 0) {
+			return;
+		}
+		if(size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		System.arraycopy(values, position, values, position + 1, size - position);
+		System.arraycopy(ids, position, ids, position + 1, size - position);
+		values[position] = value;
+		ids[position] = id;
+		size++;
+	}
+
+	void remove(double value, int id) {
+		if(Double.isNaN(value)) {
+			return;
+		}
+		int position = find(value, id);
+		if(position < 0) {
+			return;
+		}
+		System.arraycopy(values, position + 1, values, position, size - position - 1);
+		System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+		size--;
+	}
+
+	/**
+	 * @return the ids of the products with a value between min and max inclusive, ordered by value
+	 */
+	int[] range(double min, double max) {
+		int from = firstAtLeast(min);
+		int to = firstGreaterThan(max);
+		return from < to ? Arrays.copyOfRange(ids, from, to) : new int[0];
+	}
+
+	// Binary search for a value and id pair, with the result convention of Arrays.binarySearch
+	private int find(double value, int id) {
+		int low = 0;
+		int high = size - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = Double.compare(values[middle], value);
+			if(comparison == 0) {
+				comparison = Integer.compare(ids[middle], id);
+			}
+			if(comparison < 0) {
+				low = middle + 1;
+			} else if(comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private int firstAtLeast(double value) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(values[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int firstGreaterThan(double value) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(values[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,294 @@
+package com.digitalctrl.jysk.core.schedulers;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
+
+/**
+ * Reconciles the product content fragments below /content/dam/jysk with their xml assets, catching up on changes
+ * the launchers and the change listener missed. A run only imports the xml assets whose original rendition changed
+ * after the watermark persisted by the previous run, on a bounded pool of workers. The first run has no watermark yet
+ * and imports every xml asset. Finding the imported fragments whose source asset no longer exists needs a scan of all
+ * of them, so it only runs once per configured interval. The task is configured for author and runs on the cluster
+ * leader only.
+ */
+@Designate(ocd = ProductReconciliationTask.Config.class)
+@Component(service = Runnable.class, configurationPolicy = ConfigurationPolicy.REQUIRE)
+public class ProductReconciliationTask implements Runnable {
+
+	static final String DAM_ROOT = "/content/dam/jysk";
+
+	// Property on the jcr:content of the DAM root holding the time up to which changes have been reconciled
+	private static final String PN_WATERMARK = "productReconciliationWatermark";
+
+	private static final String ORIGINAL_RENDITION_CONTENT = JcrConstants.JCR_CONTENT + "/" + DamConstants.RENDITIONS_FOLDER + "/"
+			+ DamConstants.ORIGINAL_FILE + "/" + JcrConstants.JCR_CONTENT;
+
+	// Replacing the original rendition also updates the lastModified of the asset, which the DAM asset index covers
+	private static final String CHANGED_ASSETS_QUERY = "SELECT * FROM [" + DamConstants.NT_DAM_ASSET + "] AS a WHERE ISDESCENDANTNODE(a, '"
+			+ DAM_ROOT + "') AND a.[" + JcrConstants.JCR_CONTENT + "/" + JcrConstants.JCR_LASTMODIFIED + "] > CAST('%s' AS DATE)";
+
+	private static final String IMPORTED_FRAGMENTS_QUERY = "SELECT * FROM [" + DamConstants.NT_DAM_ASSET + "] AS a WHERE ISDESCENDANTNODE(a, '"
+			+ DAM_ROOT + "') AND a.[" + JcrConstants.JCR_CONTENT + "/contentFragment] = true AND a.[" + JcrConstants.JCR_CONTENT + "/"
+			+ DamConstants.METADATA_FOLDER + "/" + ProductImporter.PN_SOURCE_PATH + "] IS NOT NULL";
+
+	@ObjectClassDefinition(name = "JYSK Product Reconciliation Task",
+			description = "Imports the product xml assets below " + DAM_ROOT + " changed since the last run and reports fragments without source")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Cron-job expression")
+		String scheduler_expression() default "0 */15 * * * ?";
+
+		@AttributeDefinition(name = "Concurrent task",
+				description = "Whether or not to schedule this task concurrently, runs must not overlap so this should stay false")
+		boolean scheduler_concurrent() default false;
+
+		@AttributeDefinition(name = "Run on", description = "Instances of a cluster the task runs on, the watermark is shared so this should stay LEADER")
+		String scheduler_runOn() default "LEADER";
+
+		@AttributeDefinition(name = "Worker threads", description = "Number of changed assets imported in parallel")
+		int workerThreads() default 4;
+
+		@AttributeDefinition(name = "Overlap", description = "Milliseconds the watermark is held back, so that changes committed while a run was querying are picked up by the next run")
+		long overlap() default 60000;
+
+		@AttributeDefinition(name = "Orphan scan interval", description = "Hours between the scans for imported fragments whose source asset no longer exists, 0 disables the scan")
+		long orphanScanInterval() default 24;
+
+		@AttributeDefinition(name = "Remove orphans", description = "Whether to delete imported fragments whose source asset no longer exists instead of only reporting them")
+		boolean removeOrphans() default false;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductReconciliationTask.class);
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	ProductImporter productImporter;
+
+	private volatile int workerThreads;
+	private volatile long overlap;
+	private volatile long orphanScanInterval;
+	private volatile boolean removeOrphans;
+
+	// Only touched by the runs, which the scheduler doesn't overlap
+	private long lastOrphanScan;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		workerThreads = Math.max(1, config.workerThreads());
+		overlap = Math.max(0, config.overlap());
+		orphanScanInterval = TimeUnit.HOURS.toMillis(Math.max(0, config.orphanScanInterval()));
+		removeOrphans = config.removeOrphans();
+	}
+
+	@Override
+	public void run() {
+		long runStart = System.currentTimeMillis();
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Resource damRoot = resourceResolver.getResource(DAM_ROOT);
+			if(damRoot == null) {
+				LOGGER.warn("Skipping product reconciliation, {} doesn't exist", DAM_ROOT);
+				return;
+			}
+
+			long watermark = readWatermark(damRoot);
+			List<ChangedAsset> changedAssets = findChangedAssets(resourceResolver, watermark);
+			long earliestFailure = importAll(changedAssets);
+			if(orphanScanInterval > 0 && runStart - lastOrphanScan >= orphanScanInterval) {
+				reconcileOrphans(resourceResolver);
+				lastOrphanScan = runStart;
+			}
+
+			// Failed assets keep the watermark before them, so the next run retries them
+			long newWatermark = Math.min(runStart - overlap, earliestFailure - 1);
+			if(newWatermark > watermark) {
+				writeWatermark(resourceResolver, newWatermark);
+			}
+			LOGGER.info("Reconciled {} product assets changed since {}", changedAssets.size(), ISO8601.format(toCalendar(watermark)));
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver for product reconciliation", e);
+		} catch (PersistenceException e) {
+			LOGGER.error("Failed persisting product reconciliation", e);
+		}
+	}
+
+	// Function to find the xml assets whose original rendition was modified after the watermark
+	private List<ChangedAsset> findChangedAssets(ResourceResolver resourceResolver, long watermark) {
+		List<ChangedAsset> changedAssets = new ArrayList<>();
+		String query = String.format(CHANGED_ASSETS_QUERY, ISO8601.format(toCalendar(watermark)));
+		Iterator<Resource> assets = resourceResolver.findResources(query, Query.JCR_SQL2);
+		while(assets.hasNext()) {
+			Resource asset = assets.next();
+			Resource originalContent = asset.getChild(ORIGINAL_RENDITION_CONTENT);
+			if(originalContent == null || asset.getPath().contains("/" + DamConstants.SUBASSETS_FOLDER + "/")) {
+				continue;
+			}
+			ValueMap originalProperties = originalContent.getValueMap();
+			Calendar lastModified = originalProperties.get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+			if(lastModified != null && lastModified.getTimeInMillis() > watermark
+					&& ProductImporter.isXmlMimeType(originalProperties.get(JcrConstants.JCR_MIMETYPE, String.class))) {
+				changedAssets.add(new ChangedAsset(asset.getPath(), lastModified.getTimeInMillis()));
+			}
+		}
+		return changedAssets;
+	}
+
+	// Imports the changed assets in parallel, returning the earliest modification time of the ones that failed
+	private long importAll(List<ChangedAsset> changedAssets) {
+		if(changedAssets.isEmpty()) {
+			return Long.MAX_VALUE;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(workerThreads, changedAssets.size()));
+		try {
+			List<Future<Boolean>> imports = new ArrayList<>(changedAssets.size());
+			for(ChangedAsset changedAsset : changedAssets) {
+				imports.add(executor.submit(() -> importAsset(changedAsset.getPath())));
+			}
+
+			long earliestFailure = Long.MAX_VALUE;
+			for(int i = 0; i < imports.size(); i++) {
+				boolean imported;
+				try {
+					imported = imports.get(i).get();
+				} catch (ExecutionException e) {
+					LOGGER.error("Failed reconciling product asset {}", changedAssets.get(i).getPath(), e.getCause());
+					imported = false;
+				} catch (InterruptedException e) {
+					// The remaining imports count as failed, so the watermark stays before them
+					Thread.currentThread().interrupt();
+					imported = false;
+				}
+				if(!imported) {
+					earliestFailure = Math.min(earliestFailure, changedAssets.get(i).getLastModified());
+				}
+			}
+			return earliestFailure;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Worker: imports one asset through its own resolver, as resolvers must not be shared between threads. Only an
+	// asset whose products were read and committed counts as imported, the importer throws on read and commit failures
+	private boolean importAsset(String assetPath) {
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Resource assetResource = resourceResolver.getResource(assetPath);
+			Asset asset = assetResource == null ? null : assetResource.adaptTo(Asset.class);
+			if(asset != null) {
+				productImporter.importAsset(asset);
+			}
+			return true;
+		} catch (LoginException | ProductImportException e) {
+			LOGGER.error("Failed reconciling product asset {}", assetPath, e);
+			return false;
+		}
+	}
+
+	// Finds the imported fragments whose source asset was deleted, removing them if configured to. The query is served
+	// by the jyskProductSource index
+	private void reconcileOrphans(ResourceResolver resourceResolver) throws PersistenceException {
+		List<Resource> orphans = new ArrayList<>();
+		Iterator<Resource> fragments = resourceResolver.findResources(IMPORTED_FRAGMENTS_QUERY, Query.JCR_SQL2);
+		while(fragments.hasNext()) {
+			Resource fragment = fragments.next();
+			Resource metadata = fragment.getChild(JcrConstants.JCR_CONTENT + "/" + DamConstants.METADATA_FOLDER);
+			String sourcePath = metadata == null ? null : metadata.getValueMap().get(ProductImporter.PN_SOURCE_PATH, String.class);
+			if(sourcePath != null && resourceResolver.getResource(sourcePath) == null) {
+				LOGGER.info("Product fragment {} has no source, {} doesn't exist", fragment.getPath(), sourcePath);
+				orphans.add(fragment);
+			}
+		}
+
+		if(removeOrphans && !orphans.isEmpty()) {
+			for(Resource orphan : orphans) {
+				resourceResolver.delete(orphan);
+			}
+			resourceResolver.commit();
+			LOGGER.info("Removed {} orphaned product fragments", orphans.size());
+		}
+		LOGGER.info("Found {} orphaned product fragments", orphans.size());
+	}
+
+	private static long readWatermark(Resource damRoot) {
+		Resource damRootContent = damRoot.getChild(JcrConstants.JCR_CONTENT);
+		Calendar watermark = damRootContent == null ? null : damRootContent.getValueMap().get(PN_WATERMARK, Calendar.class);
+		return watermark == null ? 0 : watermark.getTimeInMillis();
+	}
+
+	private static void writeWatermark(ResourceResolver resourceResolver, long watermark) throws PersistenceException {
+		Resource damRootContent = ResourceUtil.getOrCreateResource(resourceResolver, DAM_ROOT + "/" + JcrConstants.JCR_CONTENT,
+				Collections.<String, Object> singletonMap(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED), null, false);
+		damRootContent.adaptTo(ModifiableValueMap.class).put(PN_WATERMARK, toCalendar(watermark));
+		resourceResolver.commit();
+	}
+
+	private static Calendar toCalendar(long time) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(time);
+		return calendar;
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(
+				Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "xmlProcessing"));
+	}
+
+	private static final class ChangedAsset {
+
+		private final String path;
+		private final long lastModified;
+
+		ChangedAsset(String path, long lastModified) {
+			this.path = path;
+			this.lastModified = lastModified;
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+	}
+}
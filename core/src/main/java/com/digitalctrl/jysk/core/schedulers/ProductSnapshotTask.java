@@ -0,0 +1,320 @@
+package com.digitalctrl.jysk.core.schedulers;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.AssetManager;
+import com.digitalctrl.jysk.core.products.ProductEntry;
+import com.digitalctrl.jysk.core.products.ProductIndex;
+import com.digitalctrl.jysk.core.products.ProductJson;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Exports the whole catalogue as a gzip compressed snapshot stored as a DAM asset, one JSON product per line and
+ * optionally also as xml, so partners pulling the catalogue don't make the repository assemble it per request. The
+ * products come from the {@link ProductIndex}. Only a digest of every product is kept between runs, so a run only
+ * encodes the products that changed since to tell whether the snapshot changed, and only streams the whole catalogue
+ * into a new snapshot when it did. Runs are skipped until the index finished its initial build. The task is
+ * configured for author and runs on the cluster leader only.
+ */
+@Designate(ocd = ProductSnapshotTask.Config.class)
+@Component(service = { Runnable.class, ProductSnapshotTask.class }, configurationPolicy = ConfigurationPolicy.REQUIRE)
+public class ProductSnapshotTask implements Runnable {
+
+	@ObjectClassDefinition(name = "JYSK Product Snapshot Task",
+			description = "Exports the product content fragments as a compressed NDJSON and optionally xml snapshot")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Cron-job expression")
+		String scheduler_expression() default "0 */10 * * * ?";
+
+		@AttributeDefinition(name = "Concurrent task",
+				description = "Whether or not to schedule this task concurrently, runs must not overlap so this should stay false")
+		boolean scheduler_concurrent() default false;
+
+		@AttributeDefinition(name = "Run on", description = "Instances of a cluster the task runs on, the snapshot is written once so this should stay LEADER")
+		String scheduler_runOn() default "LEADER";
+
+		@AttributeDefinition(name = "Product folder", description = "Folder whose product fragments are exported")
+		String productFolder() default "/content/dam/jysk/products";
+
+		@AttributeDefinition(name = "Snapshot folder", description = "DAM folder the snapshot assets are stored in")
+		String snapshotFolder() default "/content/dam/jysk/exports";
+
+		@AttributeDefinition(name = "Export xml", description = "Whether to also export an xml snapshot next to the NDJSON one")
+		boolean exportXml() default false;
+	}
+
+	/**
+	 * Property on the jcr:content of a snapshot asset holding a digest of the products it contains.
+	 */
+	public static final String PN_SNAPSHOT_VERSION = "productSnapshotVersion";
+
+	public static final String PN_SNAPSHOT_COUNT = "productSnapshotCount";
+
+	public static final String MIME_TYPE = "application/gzip";
+
+	static final String NDJSON_NAME = "products.ndjson.gz";
+	static final String XML_NAME = "products.xml.gz";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductSnapshotTask.class);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private static final byte[] XML_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<products>\n".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] XML_END = "</products>\n".getBytes(StandardCharsets.UTF_8);
+
+	private static final int BUFFER_SIZE = 65536;
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	ProductIndex productIndex;
+
+	// The product digests of the last run by product path, only used by the runs, which the scheduler doesn't overlap
+	private Map<String, ProductDigest> productDigests = new HashMap<>();
+
+	private volatile String productFolder;
+	private volatile String snapshotFolder;
+	private volatile boolean exportXml;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		productFolder = config.productFolder();
+		snapshotFolder = config.snapshotFolder();
+		exportXml = config.exportXml();
+	}
+
+	/**
+	 * @return the path of the NDJSON snapshot asset, or of the xml one
+	 */
+	public String getSnapshotPath(boolean xml) {
+		return snapshotFolder + "/" + (xml ? XML_NAME : NDJSON_NAME);
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		boolean xml = exportXml;
+		// A snapshot of a partly built index would publish a partial catalogue
+		if(!productIndex.isBuilt()) {
+			LOGGER.info("Skipping product snapshot, the product index is still being built");
+			return;
+		}
+		List<ProductEntry> products = productIndex.findByFolder(productFolder);
+		int digested;
+		try {
+			digested = digest(products);
+		} catch (IOException e) {
+			LOGGER.error("Failed encoding product snapshot", e);
+			return;
+		}
+
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			boolean written = writeSnapshot(resourceResolver, getSnapshotPath(false), products, false);
+			if(xml) {
+				written |= writeSnapshot(resourceResolver, getSnapshotPath(true), products, true);
+			}
+			if(written) {
+				LOGGER.info("Exported {} products, {} of them changed since the last run, in {}ms",
+						new Object[] { products.size(), digested, System.currentTimeMillis() - start });
+			} else {
+				LOGGER.debug("Product snapshot is current, {} products", products.size());
+			}
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver for the product snapshot", e);
+		} catch (IOException e) {
+			LOGGER.error("Failed writing product snapshot", e);
+		}
+	}
+
+	// Digests the products not digested by the previous run, the index replaces the entry of a changed product
+	private int digest(List<ProductEntry> products) throws IOException {
+		Map<String, ProductDigest> currentDigests = new HashMap<>(products.size() * 2);
+		int digested = 0;
+		for(ProductEntry product : products) {
+			ProductDigest productDigest = productDigests.get(product.getPath());
+			if(productDigest == null || productDigest.product != product) {
+				// Both formats hold the same values, so the JSON line stands for the product in either
+				productDigest = new ProductDigest(product, newMessageDigest().digest(toJsonLine(product)));
+				digested++;
+			}
+			currentDigests.put(product.getPath(), productDigest);
+		}
+		productDigests = currentDigests;
+		return digested;
+	}
+
+	// Writes a snapshot unless the stored one has the same content, returning whether it was written
+	private boolean writeSnapshot(ResourceResolver resourceResolver, String path, List<ProductEntry> products, boolean xml) throws IOException {
+		MessageDigest digest = newMessageDigest();
+		digest.update((xml ? XML_NAME : NDJSON_NAME).getBytes(StandardCharsets.UTF_8));
+		for(ProductEntry product : products) {
+			digest.update(productDigests.get(product.getPath()).digest);
+		}
+		String version = Hex.encodeHexString(digest.digest());
+		Resource content = resourceResolver.getResource(path + "/" + JcrConstants.JCR_CONTENT);
+		if(content != null && version.equals(content.getValueMap().get(PN_SNAPSHOT_VERSION, String.class))) {
+			return false;
+		}
+
+		// Encoded straight into a spooled file, the catalogue is too large to hold in memory
+		File file = File.createTempFile("products", ".gz");
+		try {
+			try (OutputStream outputStream = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE)) {
+				if(xml) {
+					outputStream.write(XML_START);
+				}
+				for(ProductEntry product : products) {
+					outputStream.write(xml ? toXml(product) : toJsonLine(product));
+				}
+				if(xml) {
+					outputStream.write(XML_END);
+				}
+			}
+			try (InputStream inputStream = new FileInputStream(file)) {
+				AssetManager assetManager = resourceResolver.adaptTo(AssetManager.class);
+				Asset asset = assetManager == null ? null : assetManager.createAsset(path, inputStream, MIME_TYPE, false);
+				if(asset == null) {
+					throw new PersistenceException("Failed creating snapshot asset " + path);
+				}
+			}
+			// Kept on jcr:content, the metadata extraction of the DAM Update Asset workflow may rewrite the metadata
+			Resource contentResource = resourceResolver.getResource(path + "/" + JcrConstants.JCR_CONTENT);
+			ModifiableValueMap contentProperties = contentResource == null ? null : contentResource.adaptTo(ModifiableValueMap.class);
+			if(contentProperties == null) {
+				throw new PersistenceException("Failed storing the version of snapshot asset " + path);
+			}
+			contentProperties.put(PN_SNAPSHOT_VERSION, version);
+			contentProperties.put(PN_SNAPSHOT_COUNT, products.size());
+			resourceResolver.commit();
+			return true;
+		} catch (IOException e) {
+			resourceResolver.revert();
+			throw e;
+		} finally {
+			if(!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	private static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported", e);
+		}
+	}
+
+	// Function to encode a product as one NDJSON line
+	private static byte[] toJsonLine(ProductEntry product) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(512);
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(outputStream)) {
+			ProductJson.write(json, product);
+		}
+		outputStream.write('\n');
+		return outputStream.toByteArray();
+	}
+
+	// Function to encode a product as a product element, leaving out the values it doesn't have
+	private static byte[] toXml(ProductEntry product) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+		try {
+			writeXml(outputStream, product);
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed encoding product " + product.getPath() + " as xml", e);
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static void writeXml(OutputStream outputStream, ProductEntry product) throws XMLStreamException {
+		XMLStreamWriter xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
+		xml.writeStartElement("product");
+		xml.writeAttribute("path", product.getPath());
+		writeElement(xml, "sku", product.getSku());
+		writeElement(xml, "title", product.getTitle());
+		writeElement(xml, "description", product.getDescription());
+		writeElement(xml, "assetReference", product.getAssetReference());
+		writeElement(xml, "color", product.getColor());
+		if(!Double.isNaN(product.getPrice())) {
+			writeElement(xml, "price", Double.toString(product.getPrice()));
+		}
+		if(!Double.isNaN(product.getDiscount())) {
+			writeElement(xml, "discount", Double.toString(product.getDiscount()));
+		}
+		writeElement(xml, "lastModified", Long.toString(product.getLastModified()));
+		xml.writeEndElement();
+		xml.writeCharacters("\n");
+		xml.close();
+	}
+
+	private static void writeElement(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+		if(value != null) {
+			xml.writeStartElement(name);
+			xml.writeCharacters(value);
+			xml.writeEndElement();
+		}
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(
+				Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "productSnapshot"));
+	}
+
+	/**
+	 * The digest of a product as encoded in the snapshots, for the indexed entry it was computed from.
+	 */
+	private static final class ProductDigest {
+
+		private final ProductEntry product;
+		private final byte[] digest;
+
+		ProductDigest(ProductEntry product, byte[] digest) {
+			this.product = product;
+			this.digest = digest;
+		}
+	}
+}
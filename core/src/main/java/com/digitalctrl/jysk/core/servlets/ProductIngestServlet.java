@@ -0,0 +1,147 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.digitalctrl.jysk.core.jobs.ProductIngestJobExecutor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Queues a bulk product ingest job for a DAM folder or zip asset (POST with a path parameter) and reports the state
+ * and progress of a queued job (GET with an id parameter). The job writes with the service user, so only callers
+ * that may themselves add and modify content where the fragments are written can queue one or see its state.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Product Bulk Ingest Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_GET,
+				"sling.servlet.methods=" + HttpConstants.METHOD_POST,
+				"sling.servlet.paths=/bin/jysk/products/ingest"
+		})
+public class ProductIngestServlet extends SlingAllMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductIngestServlet.class);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	@Reference
+	private transient JobManager jobManager;
+
+	@Override
+	protected void doPost(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		// Normalized first, so a path can't leave /content/dam through .. segments
+		String path = ResourceUtil.normalize(request.getParameter(ProductIngestJobExecutor.PROPERTY_PATH));
+		if(path == null || !path.startsWith("/content/dam/")) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parameter path must point to a folder or zip asset below /content/dam");
+			return;
+		}
+		ResourceResolver resourceResolver = request.getResourceResolver();
+		Resource sourceResource = resourceResolver.getResource(path);
+		if(sourceResource == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No resource found at " + path);
+			return;
+		}
+		String targetPath = getTargetPath(sourceResource);
+		if(!canWrite(resourceResolver, targetPath)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Not allowed to write products to " + targetPath);
+			return;
+		}
+
+		Job job = jobManager.addJob(ProductIngestJobExecutor.TOPIC, Collections.<String, Object> singletonMap(ProductIngestJobExecutor.PROPERTY_PATH, path));
+		if(job == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Failed queueing product ingest job");
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		writeJob(response, job);
+	}
+
+	@Override
+	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		String id = request.getParameter("id");
+		Job job = id == null ? null : jobManager.getJobById(id);
+		if(job == null || !ProductIngestJobExecutor.TOPIC.equals(job.getTopic())) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No product ingest job found with id " + id);
+			return;
+		}
+		// The status of a job is only shown to callers who could have started it
+		ResourceResolver resourceResolver = request.getResourceResolver();
+		String path = job.getProperty(ProductIngestJobExecutor.PROPERTY_PATH, String.class);
+		Resource sourceResource = path == null ? null : resourceResolver.getResource(path);
+		if(sourceResource == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No product ingest job found with id " + id);
+			return;
+		}
+		if(!canWrite(resourceResolver, getTargetPath(sourceResource))) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Not allowed to see product ingest job " + id);
+			return;
+		}
+		writeJob(response, job);
+	}
+
+	// Fragments are written next to their source, below the folder or next to the zip asset
+	private static String getTargetPath(Resource sourceResource) {
+		return sourceResource.adaptTo(Asset.class) != null ? ResourceUtil.getParent(sourceResource.getPath()) : sourceResource.getPath();
+	}
+
+	// Whether the caller may add and modify content at a path, as the job will with the service user
+	private static boolean canWrite(ResourceResolver resourceResolver, String path) {
+		Session session = resourceResolver.adaptTo(Session.class);
+		if(session == null) {
+			return false;
+		}
+		try {
+			AccessControlManager accessControlManager = session.getAccessControlManager();
+			return accessControlManager.hasPrivileges(path, new Privilege[] {
+					accessControlManager.privilegeFromName(Privilege.JCR_ADD_CHILD_NODES),
+					accessControlManager.privilegeFromName(Privilege.JCR_MODIFY_PROPERTIES) });
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed checking write access of {} to {}", new Object[] { session.getUserID(), path, e });
+			return false;
+		}
+	}
+
+	private void writeJob(SlingHttpServletResponse response, Job job) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(response.getWriter())) {
+			json.writeStartObject();
+			json.writeStringField("id", job.getId());
+			json.writeStringField("path", job.getProperty(ProductIngestJobExecutor.PROPERTY_PATH, String.class));
+			json.writeStringField("state", job.getJobState().name());
+			json.writeNumberField("progressSteps", job.getProgressStepCount());
+			json.writeNumberField("finishedSteps", job.getFinishedProgressStep());
+			json.writeNumberField("retries", job.getRetryCount());
+			if(job.getResultMessage() != null) {
+				json.writeStringField("message", job.getResultMessage());
+			}
+			json.writeEndObject();
+		}
+	}
+}
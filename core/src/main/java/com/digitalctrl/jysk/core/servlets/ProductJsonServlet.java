@@ -0,0 +1,155 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.day.cq.dam.api.DamConstants;
+import com.digitalctrl.jysk.core.products.ProductEntry;
+import com.digitalctrl.jysk.core.products.ProductIndex;
+import com.digitalctrl.jysk.core.products.ProductJson;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Serves product content fragments as JSON from the {@link ProductIndex}: a single product for a fragment
+ * (courtneyStool.products.json) and a paged list for a folder (products.products.json?offset=0&amp;limit=50).
+ * Responses carry a strong ETag and Last-Modified derived from the modification times of the fragments they
+ * contain, and conditional requests for unchanged products are answered with 304 without a body. A folder only
+ * lists the products the caller can read.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Product JSON Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_GET,
+				"sling.servlet.resourceTypes=" + DamConstants.NT_DAM_ASSET,
+				"sling.servlet.resourceTypes=sling:Folder",
+				"sling.servlet.resourceTypes=sling:OrderedFolder",
+				"sling.servlet.selectors=products",
+				"sling.servlet.extensions=json"
+		})
+public class ProductJsonServlet extends SlingSafeMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final int DEFAULT_LIMIT = 50;
+	private static final int MAX_LIMIT = 500;
+
+	@Reference
+	private transient ProductIndex productIndex;
+
+	@Override
+	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		Resource resource = request.getResource();
+
+		ProductEntry product = productIndex.getByPath(resource.getPath());
+		if(product != null) {
+			List<ProductEntry> products = Collections.singletonList(product);
+			if(!isModified(request, response, products, "product")) {
+				return;
+			}
+			try (JsonGenerator json = createGenerator(response)) {
+				ProductJson.write(json, product);
+			}
+			return;
+		}
+		if(DamConstants.NT_DAM_ASSET.equals(resource.getResourceType())) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No product found at " + resource.getPath());
+			return;
+		}
+
+		// The index is read by a service user, only the products the caller can read are listed and versioned
+		List<ProductEntry> folderProducts = ProductIndex.filterReadable(request.getResourceResolver(), productIndex.findByFolder(resource.getPath()));
+		int offset = Math.max(0, NumberUtils.toInt(request.getParameter("offset"), 0));
+		int limit = Math.min(MAX_LIMIT, Math.max(0, NumberUtils.toInt(request.getParameter("limit"), DEFAULT_LIMIT)));
+		List<ProductEntry> products = folderProducts.subList(Math.min(offset, folderProducts.size()),
+				(int) Math.min(folderProducts.size(), (long) offset + limit));
+		if(!isModified(request, response, products, "list " + folderProducts.size() + " " + offset + " " + limit)) {
+			return;
+		}
+		try (JsonGenerator json = createGenerator(response)) {
+			json.writeStartObject();
+			json.writeNumberField("total", folderProducts.size());
+			json.writeNumberField("offset", offset);
+			json.writeNumberField("limit", limit);
+			json.writeArrayFieldStart("products");
+			for(ProductEntry folderProduct : products) {
+				ProductJson.write(json, folderProduct);
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+
+	// Sets the validators of the response, and answers with 304 if the client's copy is still current
+	private boolean isModified(SlingHttpServletRequest request, SlingHttpServletResponse response, List<ProductEntry> products, String variant) {
+		StringBuilder version = new StringBuilder(variant).append('\n');
+		long lastModified = 0;
+		for(ProductEntry product : products) {
+			version.append(product.getPath()).append(' ').append(product.getLastModified()).append('\n');
+			lastModified = Math.max(lastModified, product.getLastModified());
+		}
+		String etag = '"' + DigestUtils.md5Hex(version.toString()) + '"';
+
+		response.setHeader("ETag", etag);
+		if(lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		boolean notModified;
+		if(ifNoneMatch != null) {
+			notModified = matches(ifNoneMatch, etag);
+		} else {
+			notModified = lastModified > 0 && lastModified / 1000 <= getIfModifiedSince(request) / 1000;
+		}
+		if(notModified) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for(String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if(tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if(tag.equals(etag) || tag.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long getIfModifiedSince(SlingHttpServletRequest request) {
+		try {
+			return request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	private static JsonGenerator createGenerator(SlingHttpServletResponse response) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		return JSON_FACTORY.createGenerator(response.getWriter());
+	}
+}
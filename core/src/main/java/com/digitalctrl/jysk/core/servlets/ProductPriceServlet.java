@@ -0,0 +1,71 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalctrl.jysk.core.workflow.impl.PriceDeltaImporter;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Applies a price and discount delta feed posted as the request body, CSV (sku,price,discount) or xml depending on
+ * the content type, and reports the outcome as JSON. The changes are written with the caller's permissions.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Product Price Delta Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_POST,
+				"sling.servlet.paths=/bin/jysk/products/prices"
+		})
+public class ProductPriceServlet extends SlingAllMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductPriceServlet.class);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	@Reference
+	private transient PriceDeltaImporter priceDeltaImporter;
+
+	@Override
+	protected void doPost(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		String contentType = request.getContentType();
+		boolean xml = contentType != null && contentType.contains("xml");
+
+		PriceDeltaImporter.Summary summary;
+		try (InputStream inputStream = request.getInputStream()) {
+			summary = priceDeltaImporter.apply(request.getResourceResolver(), inputStream, xml);
+		} catch (ProductImportException e) {
+			LOGGER.warn("Rejected price delta feed", e);
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(response.getWriter())) {
+			json.writeStartObject();
+			json.writeNumberField("updated", summary.getUpdated());
+			json.writeNumberField("unchanged", summary.getUnchanged());
+			json.writeNumberField("unknown", summary.getUnknown());
+			json.writeNumberField("invalid", summary.getInvalid());
+			json.writeNumberField("failed", summary.getFailed());
+			json.writeEndObject();
+		}
+	}
+}
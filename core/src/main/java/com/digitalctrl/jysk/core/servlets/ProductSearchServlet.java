@@ -0,0 +1,85 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.digitalctrl.jysk.core.products.ProductEntry;
+import com.digitalctrl.jysk.core.products.ProductIndex;
+import com.digitalctrl.jysk.core.products.ProductJson;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Looks up products in the {@link ProductIndex}, either by sku or by colour, price and discount range, without
+ * querying the repository. Only the products the caller can read are returned.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Product Search Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_GET,
+				"sling.servlet.paths=/bin/jysk/products/search"
+		})
+public class ProductSearchServlet extends SlingSafeMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final int DEFAULT_LIMIT = 50;
+	private static final int MAX_LIMIT = 500;
+
+	@Reference
+	private transient ProductIndex productIndex;
+
+	@Override
+	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		List<ProductEntry> products;
+		String sku = request.getParameter("sku");
+		if(sku != null) {
+			ProductEntry product = productIndex.getBySku(sku);
+			if(product == null || request.getResourceResolver().getResource(product.getPath()) == null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No product found with sku " + sku);
+				return;
+			}
+			products = Collections.singletonList(product);
+		} else {
+			products = ProductIndex.filterReadable(request.getResourceResolver(), productIndex.find(request.getParameter("color"),
+					getDouble(request, "minPrice", Double.NEGATIVE_INFINITY), getDouble(request, "maxPrice", Double.POSITIVE_INFINITY),
+					getDouble(request, "minDiscount", Double.NEGATIVE_INFINITY), getDouble(request, "maxDiscount", Double.POSITIVE_INFINITY)));
+		}
+
+		int offset = Math.max(0, NumberUtils.toInt(request.getParameter("offset"), 0));
+		int limit = Math.min(MAX_LIMIT, Math.max(0, NumberUtils.toInt(request.getParameter("limit"), DEFAULT_LIMIT)));
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(response.getWriter())) {
+			json.writeStartObject();
+			json.writeNumberField("total", products.size());
+			json.writeNumberField("offset", offset);
+			json.writeArrayFieldStart("products");
+			for(int i = offset; i < Math.min(products.size(), (long) offset + limit); i++) {
+				ProductJson.write(json, products.get(i));
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+
+	private static double getDouble(SlingHttpServletRequest request, String name, double defaultValue) {
+		return NumberUtils.toDouble(request.getParameter(name), defaultValue);
+	}
+}
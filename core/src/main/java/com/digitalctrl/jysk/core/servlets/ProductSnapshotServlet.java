@@ -0,0 +1,182 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.digitalctrl.jysk.core.schedulers.ProductSnapshotTask;
+
+/**
+ * Serves the catalogue snapshot exported by the {@link ProductSnapshotTask}: products.ndjson.gz at
+ * /bin/jysk/products/snapshot and the xml one at /bin/jysk/products/snapshot.xml. Responses carry a strong ETag
+ * of the snapshot content, conditional requests for an unchanged snapshot are answered with 304, and a single byte
+ * range is served with 206 so interrupted downloads can be resumed. Like the task it is only available on author.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Product Snapshot Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_GET,
+				"sling.servlet.paths=/bin/jysk/products/snapshot"
+		})
+public class ProductSnapshotServlet extends SlingSafeMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String BYTES_UNIT = "bytes";
+
+	@Reference
+	private transient ProductSnapshotTask productSnapshotTask;
+
+	@Override
+	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		boolean xml = "xml".equals(request.getRequestPathInfo().getExtension());
+		Resource assetResource = request.getResourceResolver().getResource(productSnapshotTask.getSnapshotPath(xml));
+		Asset asset = assetResource == null ? null : assetResource.adaptTo(Asset.class);
+		Rendition original = asset == null ? null : asset.getOriginal();
+		Resource contentResource = asset == null ? null : assetResource.getChild(JcrConstants.JCR_CONTENT);
+		String version = contentResource == null ? null : contentResource.getValueMap().get(ProductSnapshotTask.PN_SNAPSHOT_VERSION, String.class);
+		if(original == null || version == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No product snapshot has been exported yet");
+			return;
+		}
+
+		String etag = '"' + version + '"';
+		long lastModified = asset.getLastModified();
+		long length = original.getSize();
+		response.setHeader("ETag", etag);
+		if(lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		response.setHeader("Accept-Ranges", BYTES_UNIT);
+		if(!isModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		response.setContentType(ProductSnapshotTask.MIME_TYPE);
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + asset.getName() + "\"");
+
+		long[] range = null;
+		String rangeHeader = request.getHeader("Range");
+		if(rangeHeader != null && isRangeCurrent(request, etag, lastModified)) {
+			range = parseRange(rangeHeader, length);
+			if(range == null) {
+				response.setHeader("Content-Range", BYTES_UNIT + " */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if(range.length == 0) {
+				// Unsupported range, served as a whole
+				range = null;
+			}
+		}
+
+		long offset = range == null ? 0 : range[0];
+		long count = range == null ? length : range[1] - range[0] + 1;
+		if(range != null) {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length);
+		}
+		response.setHeader("Content-Length", Long.toString(count));
+		try (InputStream inputStream = original.getStream()) {
+			IOUtils.copyLarge(inputStream, response.getOutputStream(), offset, count);
+		}
+	}
+
+	// Whether the client's copy is outdated, If-None-Match taking precedence over If-Modified-Since
+	private static boolean isModified(SlingHttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if(ifNoneMatch != null) {
+			return !matches(ifNoneMatch, etag);
+		}
+		return lastModified <= 0 || lastModified / 1000 > getDateHeader(request, "If-Modified-Since") / 1000;
+	}
+
+	// A range only applies to the snapshot named by If-Range, otherwise the whole new snapshot is sent
+	private static boolean isRangeCurrent(SlingHttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if(ifRange == null) {
+			return true;
+		}
+		if(ifRange.trim().startsWith("\"")) {
+			return ifRange.trim().equals(etag);
+		}
+		return lastModified > 0 && lastModified / 1000 == getDateHeader(request, "If-Range") / 1000;
+	}
+
+	/**
+	 * Parses a single byte range, bytes=first-last, bytes=first- or bytes=-suffixLength.
+	 *
+	 * @return the first and last byte, an empty array for a range that isn't supported and should be ignored, or
+	 *         null if the range can't be satisfied
+	 */
+	private static long[] parseRange(String rangeHeader, long length) {
+		String range = rangeHeader.trim();
+		if(!range.startsWith(BYTES_UNIT + "=") || range.indexOf(',') >= 0) {
+			return new long[0];
+		}
+		range = range.substring(BYTES_UNIT.length() + 1).trim();
+		int dash = range.indexOf('-');
+		if(dash < 0) {
+			return new long[0];
+		}
+		try {
+			String first = range.substring(0, dash).trim();
+			String last = range.substring(dash + 1).trim();
+			if(first.isEmpty()) {
+				long suffixLength = Long.parseLong(last);
+				if(suffixLength <= 0 || length == 0) {
+					return null;
+				}
+				return new long[] { Math.max(0, length - suffixLength), length - 1 };
+			}
+			long firstByte = Long.parseLong(first);
+			long lastByte = last.isEmpty() ? length - 1 : Long.parseLong(last);
+			if(lastByte < firstByte) {
+				return new long[0];
+			}
+			if(firstByte >= length) {
+				return null;
+			}
+			return new long[] { firstByte, Math.min(lastByte, length - 1) };
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for(String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if(tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if(tag.equals(etag) || tag.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long getDateHeader(SlingHttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.digitalctrl.jysk.core.servlets;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalctrl.jysk.core.filters.LatencyHistogram;
+import com.digitalctrl.jysk.core.filters.RequestLatencyStats;
+import com.digitalctrl.jysk.core.filters.RequestLatencyStats.RequestKey;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the request latency histograms recorded by the request filter as JSON, in milliseconds and ordered by the
+ * number of recorded requests. The latencies tell which pages are slow, so only administrators can read them, the
+ * RequestLatencyMBean exposes the same histograms through JMX.
+ */
+@Component(service = Servlet.class,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=JYSK Request Latency Servlet",
+				"sling.servlet.methods=" + HttpConstants.METHOD_GET,
+				"sling.servlet.paths=/bin/jysk/requestlatency"
+		})
+public class RequestLatencyServlet extends SlingSafeMethodsServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestLatencyServlet.class);
+
+	private static final String ADMINISTRATORS_GROUP = "administrators";
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	@Reference
+	private transient RequestLatencyStats requestLatencyStats;
+
+	@Override
+	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+		if(!isAdministrator(request.getResourceResolver())) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Request latencies are only available to administrators");
+			return;
+		}
+
+		List<Map.Entry<RequestKey, LatencyHistogram.Snapshot>> snapshots = new ArrayList<>();
+		for(Map.Entry<RequestKey, LatencyHistogram> histogram : requestLatencyStats.getHistograms().entrySet()) {
+			snapshots.add(new AbstractMap.SimpleImmutableEntry<>(histogram.getKey(), histogram.getValue().getSnapshot()));
+		}
+		snapshots.sort(Comparator.comparingLong((Map.Entry<RequestKey, LatencyHistogram.Snapshot> snapshot) -> snapshot.getValue().getCount()).reversed());
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(response.getWriter())) {
+			json.writeStartArray();
+			for(Map.Entry<RequestKey, LatencyHistogram.Snapshot> snapshot : snapshots) {
+				RequestKey key = snapshot.getKey();
+				LatencyHistogram.Snapshot latency = snapshot.getValue();
+				json.writeStartObject();
+				json.writeStringField("resourceType", key.getResourceType());
+				json.writeStringField("selectors", key.getSelectors());
+				json.writeStringField("extension", key.getExtension());
+				json.writeNumberField("count", latency.getCount());
+				json.writeNumberField("mean", latency.getMean());
+				json.writeNumberField("p50", latency.getPercentile(0.5));
+				json.writeNumberField("p90", latency.getPercentile(0.9));
+				json.writeNumberField("p99", latency.getPercentile(0.99));
+				json.writeNumberField("max", latency.getMax());
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+		}
+	}
+
+	private static boolean isAdministrator(ResourceResolver resourceResolver) {
+		User user = resourceResolver.adaptTo(User.class);
+		if(user == null) {
+			return false;
+		}
+		try {
+			if(user.isAdmin()) {
+				return true;
+			}
+			Iterator<Group> groups = user.memberOf();
+			while(groups.hasNext()) {
+				if(ADMINISTRATORS_GROUP.equals(groups.next().getID())) {
+					return true;
+				}
+			}
+			return false;
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed reading the groups of {}", resourceResolver.getUserID(), e);
+			return false;
+		}
+	}
+}
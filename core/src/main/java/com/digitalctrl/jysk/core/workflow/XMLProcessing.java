@@ -1,44 +1,19 @@
 package com.digitalctrl.jysk.core.workflow;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-
 import javax.jcr.RepositoryException;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.sling.api.resource.LoginException;
-import org.apache.sling.api.resource.PersistenceException;
-import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ResourceResolverFactory;
-import org.osgi.service.component.annotations.Activate;
+import org.apache.sling.event.jobs.Job;
 import org.osgi.service.component.annotations.Component;
-import org.osgi.service.component.annotations.ConfigurationPolicy;
 import org.osgi.service.component.annotations.Reference;
-import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.Rendition;
-import com.digitalctrl.jysk.core.workflow.impl.XMLProcessingConfiguration;
-import com.adobe.cq.dam.cfm.BasicDataType;
-import com.adobe.cq.dam.cfm.ContentElement;
-import com.adobe.cq.dam.cfm.ContentFragment;
-import com.adobe.cq.dam.cfm.ContentFragmentException;
-import com.adobe.cq.dam.cfm.ContentFragmentManager;
-import com.adobe.cq.dam.cfm.FragmentData;
-import com.adobe.cq.dam.cfm.FragmentTemplate;
+import com.digitalctrl.jysk.core.jobs.ProductImportJobExecutor;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter;
 import com.adobe.granite.workflow.PayloadMap;
 import com.adobe.granite.workflow.WorkflowException;
 import com.adobe.granite.workflow.WorkflowSession;
@@ -47,40 +22,20 @@ import com.adobe.granite.workflow.exec.WorkflowData;
 import com.adobe.granite.workflow.exec.WorkflowProcess;
 import com.adobe.granite.workflow.metadata.MetaDataMap;
 
-@Component(service=WorkflowProcess.class, property = {"process.label=XML Product Mapper"}, configurationPolicy=ConfigurationPolicy.REQUIRE)
-@Designate(ocd = XMLProcessingConfiguration.class)
+/**
+ * Imports the product xml rendition that is the payload of the workflow. In async execution mode the import is queued
+ * as a job and the step completes right away, use {@link XMLProcessingTracked} to wait for the queued import instead.
+ */
+@Component(service=WorkflowProcess.class, property = {"process.label=XML Product Mapper"})
 public class XMLProcessing implements WorkflowProcess {
 	
-	private static final String RENDITION_TEXT_XML_MIME_TYPE = "text/xml";
-	private static final String RENDITION_APPLICATION_XML_MIME_TYPE = "application/xml";
-	
 	private static final Logger LOGGER = LoggerFactory.getLogger(XMLProcessing.class);
 	
 	@Reference
-	ResourceResolverFactory resourceResolverFactory;
-	
+	ProductImporter productImporter;
+
 	@Reference
-	ContentFragmentManager contentFragmentManager;
-	
-	private ResourceResolver resourceResolver;
-	private FragmentTemplate contentFragmentTemplate;
-	
-	@Activate
-	private XMLProcessingConfiguration config;
-	
-	@Activate
-	public void activate() throws LoginException {
-		Map<String, Object> loginParam = new HashMap<>();
-		loginParam.put(ResourceResolverFactory.SUBSERVICE, "xmlProcessing");
-		resourceResolver = resourceResolverFactory.getServiceResourceResolver(loginParam);
-		
-		contentFragmentTemplate = resourceResolver.getResource(config.contentFragmentTemplate()).adaptTo(FragmentTemplate.class);
-		LOGGER.info("Got content fragment template {} from {}", contentFragmentTemplate.getTitle(), config.contentFragmentTemplate());
-		
-		Resource parentResource = resourceResolver.getResource("/content/dam/jysk/products");
-		LOGGER.info("Creating fragment under {}", parentResource.getPath());
-		//ContentFragment productContentFragment = createContentFragment(parentResource);
-	}
+	ProductImportJobExecutor importJobExecutor;
 
 	@Override
 	public void execute(WorkItem item, WorkflowSession session, MetaDataMap args) throws WorkflowException {
@@ -100,127 +55,20 @@ public class XMLProcessing implements WorkflowProcess {
 			return;
 		}
 		
-		InputStream xmlRenditionInputStream = getXmlInputStream(asset, session);
-		if(xmlRenditionInputStream == null) {
-			LOGGER.warn("Failed getting xml rendition input stream from workflow item {}", item.getContentPath());
-			return;
-		}
-		
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder parser;
-		Document dc;
-		try {
-			parser = documentBuilderFactory.newDocumentBuilder();
-			dc = parser.parse(xmlRenditionInputStream);
-		} catch (IOException | SAXException | ParserConfigurationException e) {
-			LOGGER.error("Failed generating document object from xml rendition input stream {}", xmlRenditionInputStream.toString());
-			return;
-		}
-		
-		Node rootNode = dc.getFirstChild();
-		ContentFragment productContentFragment = createContentFragment(asset, getXmlElements(rootNode));
-		try {
-			resourceResolver.commit();
-		} catch (PersistenceException e) {
-			LOGGER.error("Failed committing changes that created content fragment {}", productContentFragment.getTitle(), e.getMessage());
-		}
-	}
-	
-	private Map<String, String> getXmlElements(Node rootNode){
-		Map<String, String> xmlElements = new HashMap<>();
-		
-		NodeList childNodes = rootNode.getChildNodes();
-		int numChildNodes = childNodes.getLength();
-		for(int i = 0; i < numChildNodes; i++) {
-			Node currNode = childNodes.item(i);
-			xmlElements.put(currNode.getNodeName(), currNode.getTextContent());
-			LOGGER.info("Added node {} - {}", currNode.getNodeName(), currNode.getTextContent());
-		}
-		
-		return xmlElements;
-	}
-
-	private ContentFragment createContentFragment(Asset asset, Map<String, String> dataElements) {
-		Resource parentResource = asset.adaptTo(Resource.class).getParent();
-		
-		ContentFragment productContentFragment;
 		try {
-			String assetName = asset.getName().split("\\.")[0];
-			productContentFragment = contentFragmentTemplate.createFragment(parentResource, assetName, splitCamelCase(assetName));
-		} catch (ContentFragmentException e) {
-			LOGGER.error("Failed creating content fragment from template {}", contentFragmentTemplate.getTitle()+ " at " + parentResource.getPath(), e.getMessage());
-			return null;
-		}
-		
-		// Iterate through the content fragment's elements, find the value from the data source for each and set it
-		Iterator<ContentElement> contentFragmentElements = productContentFragment.getElements();
-		contentFragmentElements.forEachRemaining(contentElement -> {
-			// Get value corresponding to current content fragment element name
-			String currValue = dataElements.get(contentElement.getName());
-			if(currValue == null) {
-				LOGGER.warn("Didn't get a value for {}, ignoring", contentElement.getName());
+			if(productImporter.isAsyncExecution()) {
+				// A full queue fails the step, so the workflow engine retries it later
+				Job job = importJobExecutor.enqueue(asset.getPath());
+				LOGGER.info("Queued import of {} as job {}", asset.getPath(), job.getId());
 				return;
 			}
-			
-			// Set value on content element in content fragment
-			try {
-				Object convertedValue = convertValue(contentElement.getValue().getDataType().getTypeString(), currValue);
-				FragmentData contentElementValue = contentElement.getValue();
-				
-				contentElementValue.setValue(convertedValue);
-				contentElement.setValue(contentElementValue);
-				
-				LOGGER.info("Set value {} on content element {}", contentElement.getValue().getValue() + " as " + contentElement.getValue().getDataType().getTypeString(), contentElement.getName());
-			} catch (ContentFragmentException e) {
-				LOGGER.error("Failed setting element {}", currValue + " on content element of type " + contentElement.getContentType(), e);
-			}
-		});
-		
-		return productContentFragment;
-	}
-	
-	// Function to split camel case from file name to set as content fragment title
-	private static String splitCamelCase(String s) {
-		String splitString = s.replaceAll(String.format("%s|%s|%s", "(?<=[A-Z])(?=[A-Z][a-z])", "(?<=[^A-Z])(?=[A-Z])",
-				"(?<=[A-Za-z])(?=[^A-Za-z])"), " ");
-		return splitString.substring(0, 1).toUpperCase() + splitString.substring(1);
-	}
-	
-	// Function to convert string value from data source to that type expected by the content fragment element template data type
-	private static Object convertValue(String datatype, String value) {
-		switch(datatype) {
-		case BasicDataType.DOUBLE: {
-			return Double.parseDouble(value);
-		}
-		case BasicDataType.LONG: {
-			return Long.parseLong(value);
-		}
-		default: {
-			return value;
-		}
-		}
-	}
-
-	private InputStream getXmlInputStream(Asset asset, WorkflowSession session) {
-		
-		List<Rendition> renditions = asset.getRenditions();
-		Rendition xmlRendition = null;
-		for (Rendition rendition : renditions) {
-			if(rendition.getMimeType().equals(RENDITION_APPLICATION_XML_MIME_TYPE) || rendition.getMimeType().equals(RENDITION_TEXT_XML_MIME_TYPE)) {
-				xmlRendition = rendition;
-				break;
-			}
-		}
-		
-		if(xmlRendition == null) {
-			LOGGER.warn("Failed getting a valid xml rendition from asset {}", asset.getPath());
-			return null;
+			productImporter.importAsset(asset);
+		} catch (ProductImportException e) {
+			throw new WorkflowException("Failed importing products from " + item.getContentPath(), e);
 		}
-		
-		return xmlRendition.getStream();
 	}
 
-	private Asset getResourceFromItem(WorkItem item, WorkflowSession session) throws RepositoryException{
+	static Asset getResourceFromItem(WorkItem item, WorkflowSession session) throws RepositoryException{
 		WorkflowData workflowData = item.getWorkflowData();
 		
 		if(!workflowData.getPayloadType().equals(PayloadMap.TYPE_JCR_PATH)){
@@ -0,0 +1,81 @@
+package com.digitalctrl.jysk.core.workflow;
+
+import java.io.Serializable;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.Job.JobState;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.digitalctrl.jysk.core.jobs.ProductImportJobExecutor;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportException;
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.WorkflowExternalProcess;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+
+/**
+ * Queues the import of the product xml payload as a job like the async mode of {@link XMLProcessing}, but keeps the
+ * workflow on this step until the job has ended, so the following steps see the imported products. The workflow
+ * engine polls the job while it waits, no workflow thread is held. The job is queued on the tracked topic, whose
+ * queue keeps finished jobs, and is removed once its outcome is read. A job that ends without succeeding, or that no
+ * longer exists, fails the step.
+ */
+@Component(service=WorkflowExternalProcess.class, property = {"process.label=XML Product Mapper (tracked)"})
+public class XMLProcessingTracked implements WorkflowExternalProcess {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(XMLProcessingTracked.class);
+
+	@Reference
+	ProductImportJobExecutor importJobExecutor;
+
+	@Override
+	public Serializable execute(WorkItem item, WorkflowSession session, MetaDataMap args) throws WorkflowException {
+		Asset asset;
+		try {
+			asset = XMLProcessing.getResourceFromItem(item, session);
+		} catch (RepositoryException e) {
+			throw new WorkflowException("Failed getting asset from " + item.getContentPath(), e);
+		}
+		if(asset == null) {
+			throw new WorkflowException("Got no asset from " + item.getContentPath());
+		}
+
+		try {
+			Job job = importJobExecutor.enqueueTracked(asset.getPath());
+			LOGGER.info("Queued import of {} as job {}", asset.getPath(), job.getId());
+			return job.getId();
+		} catch (ProductImportException e) {
+			throw new WorkflowException("Failed queuing import of " + item.getContentPath(), e);
+		}
+	}
+
+	@Override
+	public boolean hasFinished(Serializable externalProcessId, WorkItem item, WorkflowSession session, MetaDataMap args) {
+		Job job = importJobExecutor.getJob(externalProcessId.toString());
+		return job == null || (job.getJobState() != JobState.QUEUED && job.getJobState() != JobState.ACTIVE);
+	}
+
+	@Override
+	public void handleResult(Serializable externalProcessId, WorkItem item, WorkflowSession session, MetaDataMap args) throws WorkflowException {
+		Job job = importJobExecutor.getJob(externalProcessId.toString());
+		if(job == null) {
+			// Removed, expired or never created, the import may never have run
+			LOGGER.error("Import job {} for {} no longer exists", externalProcessId, item.getContentPath());
+			throw new WorkflowException("Import job " + externalProcessId + " for " + item.getContentPath() + " no longer exists, its outcome is unknown");
+		}
+		if(job.getJobState() != JobState.SUCCEEDED) {
+			// Failed jobs are kept with their state and result message
+			throw new WorkflowException("Import job " + externalProcessId + " for " + item.getContentPath() + " ended " + job.getJobState()
+					+ ": " + job.getResultMessage());
+		}
+		importJobExecutor.removeJob(job.getId());
+		LOGGER.info("Import job {} for {} finished", externalProcessId, item.getContentPath());
+	}
+}
@@ -0,0 +1,316 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.DamConstants;
+
+/**
+ * In-memory index of the DAM images by file name, so the importer can turn an image file name or a SKU into an
+ * asset reference without a repository query per product. The index is built by one traversal in the background
+ * after activation and afterwards kept up to date from the added and removed resources. Image names are matched
+ * case insensitively and without extension; when several images share a name, the first one indexed is used.
+ */
+@Designate(ocd = DamImageIndex.Config.class)
+@Component(service = { DamImageIndex.class, ResourceChangeListener.class },
+		immediate = true,
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=In-memory index of the DAM images by file name",
+				ResourceChangeListener.CHANGES + "=ADDED",
+				ResourceChangeListener.CHANGES + "=REMOVED"
+		})
+public class DamImageIndex implements ResourceChangeListener {
+
+	@ObjectClassDefinition(name = "JYSK DAM Image Index",
+			description = "In-memory index of the DAM images by file name used to resolve the asset references of imported products")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Image folders", description = "Folders holding the product images")
+		String[] resource_paths() default { "/content/dam/jysk" };
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DamImageIndex.class);
+
+	private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "webp", "tif", "tiff", "svg"));
+
+	private static final String JCR_CONTENT_SEGMENT = "/" + JcrConstants.JCR_CONTENT;
+	private static final String SUBASSETS_SEGMENT = "/" + DamConstants.SUBASSETS_FOLDER + "/";
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock
+	private Images images = new Images();
+	// The changes received while the initial traversal runs, applied once it is done. Guarded by lock
+	private List<ResourceChange> changesDuringBuild;
+
+	private final CountDownLatch built = new CountDownLatch(1);
+	private volatile boolean deactivated;
+
+	@Activate
+	protected void activate(final Config config) {
+		lock.writeLock().lock();
+		try {
+			changesDuringBuild = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		// The traversal of a large DAM would hold up the activation and everything referencing the index
+		Thread buildThread = new Thread(() -> build(config.resource_paths()), "JYSK DAM image index");
+		buildThread.setDaemon(true);
+		buildThread.start();
+	}
+
+	@Deactivate
+	protected void deactivate() {
+		deactivated = true;
+	}
+
+	// Traverses the image folders into a new index without holding the lock, and swaps it in
+	private void build(String[] roots) {
+		long start = System.currentTimeMillis();
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			Images builtImages = new Images();
+			for(String root : roots) {
+				Resource rootResource = resourceResolver.getResource(root);
+				if(rootResource != null) {
+					builtImages.indexTree(rootResource);
+				}
+			}
+
+			List<ResourceChange> missedChanges;
+			lock.writeLock().lock();
+			try {
+				images = builtImages;
+				missedChanges = changesDuringBuild;
+				changesDuringBuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			apply(missedChanges, resourceResolver);
+			LOGGER.info("Indexed {} DAM images in {}ms", size(), System.currentTimeMillis() - start);
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver, the DAM image index stays empty", e);
+			lock.writeLock().lock();
+			try {
+				changesDuringBuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			built.countDown();
+		}
+	}
+
+	@Override
+	public void onChange(List<ResourceChange> changes) {
+		lock.writeLock().lock();
+		try {
+			if(changesDuringBuild != null) {
+				changesDuringBuild.addAll(changes);
+				return;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		try (ResourceResolver resourceResolver = getServiceResolver()) {
+			apply(changes, resourceResolver);
+		} catch (LoginException e) {
+			LOGGER.error("Failed getting service resolver, {} DAM changes are not indexed", changes.size(), e);
+		}
+	}
+
+	private void apply(List<ResourceChange> changes, ResourceResolver resourceResolver) {
+		List<String> addedFolders = new ArrayList<>();
+		lock.writeLock().lock();
+		try {
+			for(ResourceChange change : changes) {
+				String path = change.getPath();
+				if(change.getType() == ResourceChange.ChangeType.REMOVED) {
+					images.removeTree(path);
+				} else if(path.contains(JCR_CONTENT_SEGMENT) || path.contains(SUBASSETS_SEGMENT)) {
+					continue;
+				} else if(isImage(path)) {
+					images.put(path);
+				} else {
+					addedFolders.add(path);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		// Folders added with content, e.g. by a move, are traversed, images added on their own need no read
+		for(String addedFolder : addedFolders) {
+			Resource folder = resourceResolver.getResource(addedFolder);
+			if(folder == null) {
+				continue;
+			}
+			Images addedImages = new Images();
+			addedImages.indexTree(folder);
+			lock.writeLock().lock();
+			try {
+				for(String imagePath : addedImages.namesByPath.keySet()) {
+					images.put(imagePath);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Looks up the image named after the first candidate that names one. A candidate may be a file name with or
+	 * without extension, or a SKU. Lookups made before the initial traversal finished wait for it.
+	 *
+	 * @return the path of the image, or null if no candidate names one
+	 */
+	public String find(String... candidates) {
+		awaitBuilt();
+		lock.readLock().lock();
+		try {
+			for(String candidate : candidates) {
+				if(StringUtils.isBlank(candidate)) {
+					continue;
+				}
+				String fileName = candidate.trim();
+				String path = images.pathsByName.get(getName(fileName.substring(fileName.lastIndexOf('/') + 1)));
+				if(path != null) {
+					return path;
+				}
+			}
+			return null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return images.namesByPath.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void awaitBuilt() {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				built.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private ResourceResolver getServiceResolver() throws LoginException {
+		return resourceResolverFactory.getServiceResourceResolver(Collections.<String, Object> singletonMap(ResourceResolverFactory.SUBSERVICE, "damImageIndex"));
+	}
+
+	private static boolean isImage(String path) {
+		int extensionIndex = path.lastIndexOf('.');
+		return extensionIndex > path.lastIndexOf('/') && IMAGE_EXTENSIONS.contains(path.substring(extensionIndex + 1).toLowerCase(Locale.ENGLISH));
+	}
+
+	// Function to strip the image extension from a file name and lower case it to look it up
+	private static String getName(String fileName) {
+		String name = isImage(fileName) ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * The image paths by name and the names by path. When several images share a name, the name resolves to the
+	 * first one indexed, and to the first remaining one by path once that is removed.
+	 */
+	private final class Images {
+
+		private final Map<String, String> pathsByName = new HashMap<>();
+		private final NavigableMap<String, String> namesByPath = new TreeMap<>();
+
+		void indexTree(Resource resource) {
+			if(deactivated) {
+				return;
+			}
+			if(isImage(resource.getPath())) {
+				put(resource.getPath());
+				return;
+			}
+			for(Resource child : resource.getChildren()) {
+				String childName = child.getName();
+				if(!JcrConstants.JCR_CONTENT.equals(childName) && !DamConstants.SUBASSETS_FOLDER.equals(childName)) {
+					indexTree(child);
+				}
+			}
+		}
+
+		void put(String path) {
+			String name = getName(path.substring(path.lastIndexOf('/') + 1));
+			namesByPath.put(path, name);
+			pathsByName.putIfAbsent(name, path);
+		}
+
+		void removeTree(String path) {
+			List<String> removedPaths = new ArrayList<>(namesByPath.subMap(path + "/", true, path + "0", false).keySet());
+			removedPaths.add(path);
+			Set<String> unresolvedNames = new HashSet<>();
+			for(String removedPath : removedPaths) {
+				String name = namesByPath.remove(removedPath);
+				if(name != null && pathsByName.remove(name, removedPath)) {
+					unresolvedNames.add(name);
+				}
+			}
+			if(unresolvedNames.isEmpty()) {
+				return;
+			}
+			// Another image of a removed name takes its place
+			for(Map.Entry<String, String> image : namesByPath.entrySet()) {
+				if(unresolvedNames.remove(image.getValue())) {
+					pathsByName.put(image.getValue(), image.getKey());
+					if(unresolvedNames.isEmpty()) {
+						return;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import com.adobe.cq.dam.cfm.BasicDataType;
+import com.adobe.cq.dam.cfm.ElementTemplate;
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+import com.day.cq.commons.jcr.JcrConstants;
+
+/**
+ * Field mapping from product xml elements to the elements of a content fragment model, compiled once from
+ * the model's element templates. Every mapping carries the converter for its element's data type, so
+ * mapping a product no longer needs a data type lookup per element.
+ */
+public class FragmentMappingPlan {
+
+	/**
+	 * Converts the text of an xml element to the value type expected by a content fragment element.
+	 */
+	@FunctionalInterface
+	public interface ValueConverter {
+		Object convert(String value);
+	}
+
+	// The fields of a model are the items of its scaffolding dialog, below the jcr:content of the model
+	private static final String MODEL_FIELDS = "model/cq:dialog/content/items";
+
+	private final String modelPath;
+	private final List<FieldMapping> mappings;
+
+	private FragmentMappingPlan(String modelPath, List<FieldMapping> mappings) {
+		this.modelPath = modelPath;
+		this.mappings = Collections.unmodifiableList(mappings);
+	}
+
+	/**
+	 * Compiles the plan for a model. Each element of the model is fed from the xml element of the same name.
+	 */
+	public static FragmentMappingPlan compile(String modelPath, FragmentTemplate template) {
+		return compile(modelPath, template, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Compiles the plan for a model whose elements of the given names must have a value.
+	 */
+	public static FragmentMappingPlan compile(String modelPath, FragmentTemplate template, Set<String> requiredElements) {
+		List<FieldMapping> mappings = new ArrayList<>();
+		Iterator<ElementTemplate> elementTemplates = template.getElements();
+		while(elementTemplates.hasNext()) {
+			ElementTemplate elementTemplate = elementTemplates.next();
+			String dataType = elementTemplate.getDataType() == null ? BasicDataType.STRING : elementTemplate.getDataType().getTypeString();
+			mappings.add(new FieldMapping(elementTemplate.getName(), elementTemplate.getName(), dataType, converterFor(dataType),
+					requiredElements.contains(elementTemplate.getName())));
+		}
+		return new FragmentMappingPlan(modelPath, mappings);
+	}
+
+	/**
+	 * Reads the names of the elements marked as required in a model, as the fragment template API doesn't expose it.
+	 *
+	 * @param templateResource the model or its jcr:content
+	 */
+	public static Set<String> readRequiredElements(Resource templateResource) {
+		Resource fields = templateResource.getChild(MODEL_FIELDS);
+		if(fields == null) {
+			fields = templateResource.getChild(JcrConstants.JCR_CONTENT + "/" + MODEL_FIELDS);
+		}
+		if(fields == null) {
+			return Collections.emptySet();
+		}
+		Set<String> requiredElements = new HashSet<>();
+		for(Resource field : fields.getChildren()) {
+			ValueMap properties = field.getValueMap();
+			String required = properties.get("required", String.class);
+			if("on".equals(required) || "true".equals(required)) {
+				requiredElements.add(properties.get("name", String.class));
+			}
+		}
+		return requiredElements;
+	}
+
+	// Function to pick the conversion from the string value of the data source to the type of the content fragment element
+	public static ValueConverter converterFor(String dataType) {
+		switch(dataType) {
+		case BasicDataType.DOUBLE: {
+			return Double::valueOf;
+		}
+		case BasicDataType.LONG: {
+			return Long::valueOf;
+		}
+		default: {
+			return value -> value;
+		}
+		}
+	}
+
+	/**
+	 * Hashes the values a product maps to. Values are normalized by converting them to their element's type
+	 * first, so a product hashes the same as long as it would write the same values. Elements the model
+	 * doesn't map are not part of the hash.
+	 */
+	public String hash(Map<String, String> dataElements) {
+		StringBuilder normalized = new StringBuilder();
+		for(FieldMapping mapping : mappings) {
+			String value = dataElements.get(mapping.getXmlElementName());
+			if(value == null) {
+				continue;
+			}
+			Object convertedValue;
+			try {
+				convertedValue = mapping.convert(value);
+			} catch (IllegalArgumentException e) {
+				convertedValue = value;
+			}
+			normalized.append(mapping.getElementName()).append('=').append(convertedValue).append('\n');
+		}
+		return DigestUtils.md5Hex(normalized.toString());
+	}
+
+	/**
+	 * Checks a product against the model: every required element needs a value, and every value has to convert to
+	 * the type of its element. Values the model doesn't map are not checked.
+	 *
+	 * @param checkRequired false for partial values like those of a variation
+	 * @return all errors found, empty if the product is valid
+	 */
+	public List<String> validate(Map<String, String> dataElements, boolean checkRequired) {
+		List<String> errors = Collections.emptyList();
+		for(FieldMapping mapping : mappings) {
+			String value = dataElements.get(mapping.getXmlElementName());
+			String error = null;
+			if(StringUtils.isBlank(value)) {
+				if(checkRequired && mapping.isRequired()) {
+					error = mapping.getElementName() + " is required";
+				}
+			} else {
+				try {
+					mapping.convert(value);
+				} catch (IllegalArgumentException e) {
+					error = mapping.getElementName() + " '" + value + "' is not a " + mapping.getDataType();
+				}
+			}
+			if(error != null) {
+				if(errors.isEmpty()) {
+					errors = new ArrayList<>();
+				}
+				errors.add(error);
+			}
+		}
+		return errors;
+	}
+
+	public String getModelPath() {
+		return modelPath;
+	}
+
+	public List<FieldMapping> getMappings() {
+		return mappings;
+	}
+
+	/**
+	 * Maps one xml element to one content fragment element.
+	 */
+	public static class FieldMapping {
+
+		private final String xmlElementName;
+		private final String elementName;
+		private final String dataType;
+		private final ValueConverter converter;
+		private final boolean required;
+
+		FieldMapping(String xmlElementName, String elementName, String dataType, ValueConverter converter, boolean required) {
+			this.xmlElementName = xmlElementName;
+			this.elementName = elementName;
+			this.dataType = dataType;
+			this.converter = converter;
+			this.required = required;
+		}
+
+		public String getXmlElementName() {
+			return xmlElementName;
+		}
+
+		public String getElementName() {
+			return elementName;
+		}
+
+		public String getDataType() {
+			return dataType;
+		}
+
+		public boolean isRequired() {
+			return required;
+		}
+
+		public Object convert(String value) {
+			return converter.convert(value);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.Resource;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+
+/**
+ * Keeps the compiled {@link FragmentMappingPlan} of every content fragment model in use, and drops a plan as
+ * soon as anything below its model changes so that model edits are picked up without a bundle restart. Only changes
+ * below the content fragment models folders are delivered, and only the ones below a model in use drop a plan.
+ */
+@Component(service = { FragmentMappingPlanCache.class, EventHandler.class },
+		property = {
+				Constants.SERVICE_DESCRIPTION + "=Cache of compiled content fragment model mapping plans",
+				EventConstants.EVENT_TOPIC + "=org/apache/sling/api/resource/Resource/*",
+				EventConstants.EVENT_FILTER + "=(path=/conf/*/settings/dam/cfm/models/*)"
+		})
+public class FragmentMappingPlanCache implements EventHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FragmentMappingPlanCache.class);
+
+	private static final String TEMPLATE_CONTENT_SUFFIX = "/jcr:content";
+
+	private final ConcurrentMap<String, FragmentMappingPlan> plans = new ConcurrentHashMap<>();
+	// The number of changes seen per model in use, a model is added on its first lookup
+	private final ConcurrentMap<String, AtomicLong> modelChanges = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the plan for a model, compiling it from the given template on the first call after the model changed.
+	 *
+	 * @param templatePath the path of the model or of its jcr:content node, as configured for the importer
+	 * @param templateResource the resource the template was adapted from, the model's required elements are read from it
+	 */
+	public FragmentMappingPlan getPlan(String templatePath, FragmentTemplate template, Resource templateResource) {
+		String modelPath = getModelPath(templatePath);
+		FragmentMappingPlan plan = plans.get(modelPath);
+		if(plan == null) {
+			// A plan compiled while the model was being changed may already be outdated, so only keep it if no change came in meanwhile
+			AtomicLong changes = modelChanges.computeIfAbsent(modelPath, path -> new AtomicLong());
+			long changesBefore = changes.get();
+			plan = FragmentMappingPlan.compile(modelPath, template, FragmentMappingPlan.readRequiredElements(templateResource));
+			if(changes.get() == changesBefore) {
+				plans.putIfAbsent(modelPath, plan);
+			}
+			LOGGER.info("Compiled mapping plan with {} elements for model {}", plan.getMappings().size(), modelPath);
+		}
+		return plan;
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
+		if(path == null) {
+			return;
+		}
+		for(Map.Entry<String, AtomicLong> model : modelChanges.entrySet()) {
+			String modelPath = model.getKey();
+			if(path.equals(modelPath) || path.startsWith(modelPath + "/")) {
+				model.getValue().incrementAndGet();
+				if(plans.remove(modelPath) != null) {
+					LOGGER.debug("Dropping mapping plan of model {} after change at {}", modelPath, path);
+				}
+			}
+		}
+	}
+
+	private static String getModelPath(String templatePath) {
+		if(templatePath.endsWith(TEMPLATE_CONTENT_SUFFIX)) {
+			return templatePath.substring(0, templatePath.length() - TEMPLATE_CONTENT_SUFFIX.length());
+		}
+		return templatePath;
+	}
+}
@@ -0,0 +1,63 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.Calendar;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * Progress marker stored on the content node of a feed asset. It records how many products of the feed
+ * have been committed and the hash of the feed they came from, so that a restarted import of the same
+ * feed can skip the products that are already in the repository.
+ *
+ * The checkpoint is written through the same resolver as the content fragments, so it is persisted in
+ * the same commit as the batch it describes.
+ */
+public class ImportCheckpoint {
+
+	public static final String PN_OFFSET = "xmlImportOffset";
+	public static final String PN_FEED_HASH = "xmlImportFeedHash";
+	public static final String PN_LAST_COMMITTED = "xmlImportLastCommitted";
+
+	private final Resource assetContentResource;
+	private final String feedHash;
+	private final int resumeOffset;
+
+	private ImportCheckpoint(Resource assetContentResource, String feedHash, int resumeOffset) {
+		this.assetContentResource = assetContentResource;
+		this.feedHash = feedHash;
+		this.resumeOffset = resumeOffset;
+	}
+
+	/**
+	 * Reads the checkpoint of an asset. The stored offset is only honoured when it was written for a feed
+	 * with the same hash, any other checkpoint means the feed changed and has to be imported from the start.
+	 */
+	public static ImportCheckpoint read(Resource assetContentResource, String feedHash) {
+		ValueMap properties = assetContentResource.getValueMap();
+		int offset = 0;
+		if(feedHash.equals(properties.get(PN_FEED_HASH, String.class))) {
+			offset = properties.get(PN_OFFSET, 0);
+		}
+		return new ImportCheckpoint(assetContentResource, feedHash, offset);
+	}
+
+	/**
+	 * @return the number of leading products in the feed that were committed by a previous run
+	 */
+	public int getResumeOffset() {
+		return resumeOffset;
+	}
+
+	/**
+	 * Records that every product before the given offset is part of the pending changes. Has to be
+	 * followed by a commit of the resolver the checkpoint was read from.
+	 */
+	public void update(int offset) {
+		ModifiableValueMap properties = assetContentResource.adaptTo(ModifiableValueMap.class);
+		properties.put(PN_OFFSET, offset);
+		properties.put(PN_FEED_HASH, feedHash);
+		properties.put(PN_LAST_COMMITTED, Calendar.getInstance());
+	}
+}
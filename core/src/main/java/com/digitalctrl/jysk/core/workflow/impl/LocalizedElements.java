@@ -0,0 +1,117 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The values of one product split into the master and one set per language. The xml readers store the value of an
+ * element tagged with xml:lang under the element name and the language joined by {@link #LOCALE_SEPARATOR}, e.g.
+ * title@fr, next to the untagged values. The separator can't occur in xml element names, so a localized key never
+ * collides with an element name.
+ */
+public class LocalizedElements {
+
+	public static final char LOCALE_SEPARATOR = '@';
+
+	private static final String UNDETERMINED_LOCALE = "und";
+
+	private final Map<String, String> master;
+	private final Map<String, Map<String, String>> variations;
+
+	private LocalizedElements(Map<String, String> master, Map<String, Map<String, String>> variations) {
+		this.master = master;
+		this.variations = variations;
+	}
+
+	/**
+	 * @param lang the xml:lang of the element, null or empty if it has none
+	 * @return the key the value of the element is stored under
+	 */
+	public static String key(String elementName, String lang) {
+		if(StringUtils.isEmpty(lang)) {
+			return elementName;
+		}
+		String locale = normalizeLocale(lang);
+		return locale == null ? elementName : elementName + LOCALE_SEPARATOR + locale;
+	}
+
+	/**
+	 * Splits the values read from xml. Values tagged with the master locale fill the master where no untagged value
+	 * exists, values tagged with any other language make up the variation named after the language.
+	 */
+	public static LocalizedElements split(Map<String, String> elements, String masterLocale) {
+		boolean localized = false;
+		for(String key : elements.keySet()) {
+			if(key.indexOf(LOCALE_SEPARATOR) >= 0) {
+				localized = true;
+				break;
+			}
+		}
+		// Feeds without xml:lang keep their map as is
+		if(!localized) {
+			return new LocalizedElements(elements, Collections.<String, Map<String, String>> emptyMap());
+		}
+
+		String master = StringUtils.isEmpty(masterLocale) ? null : normalizeLocale(masterLocale);
+		Map<String, String> masterElements = new HashMap<>();
+		Map<String, Map<String, String>> variations = new TreeMap<>();
+		for(Map.Entry<String, String> element : elements.entrySet()) {
+			String key = element.getKey();
+			int separator = key.indexOf(LOCALE_SEPARATOR);
+			// Untagged values win over values tagged with the master locale, whatever order they were read in
+			if(separator < 0) {
+				masterElements.put(key, element.getValue());
+				continue;
+			}
+			String elementName = key.substring(0, separator);
+			String locale = key.substring(separator + 1);
+			if(locale.equals(master)) {
+				masterElements.putIfAbsent(elementName, element.getValue());
+			} else {
+				variations.computeIfAbsent(locale, newLocale -> new HashMap<>()).put(elementName, element.getValue());
+			}
+		}
+		return new LocalizedElements(masterElements, variations);
+	}
+
+	/**
+	 * Hashes the mapped values of the master and of all variations. Without variations this is the hash of the master
+	 * alone, so fragments imported before variations existed are not rewritten.
+	 */
+	public String hash(FragmentMappingPlan mappingPlan) {
+		String hash = mappingPlan.hash(master);
+		for(Map.Entry<String, Map<String, String>> variation : variations.entrySet()) {
+			hash = DigestUtils.md5Hex(hash + '\n' + variation.getKey() + '=' + mappingPlan.hash(variation.getValue()));
+		}
+		return hash;
+	}
+
+	public Map<String, String> getMaster() {
+		return master;
+	}
+
+	/**
+	 * @return the values per variation name, in the order of the names
+	 */
+	public Map<String, Map<String, String>> getVariations() {
+		return variations;
+	}
+
+	// Function to get the English display name of a variation's language to use as its title
+	public static String getVariationTitle(String locale) {
+		String displayName = Locale.forLanguageTag(locale).getDisplayName(Locale.ENGLISH);
+		return StringUtils.isEmpty(displayName) ? locale : displayName;
+	}
+
+	// Normalizes en_GB and EN-gb to en-gb, which is also a valid variation name, null for tags that aren't languages
+	private static String normalizeLocale(String lang) {
+		String locale = Locale.forLanguageTag(lang.trim().replace('_', '-')).toLanguageTag().toLowerCase(Locale.ENGLISH);
+		return UNDETERMINED_LOCALE.equals(locale) ? null : locale;
+	}
+}
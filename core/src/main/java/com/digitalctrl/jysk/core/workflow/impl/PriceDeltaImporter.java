@@ -0,0 +1,361 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.digitalctrl.jysk.core.products.ProductEntry;
+import com.digitalctrl.jysk.core.products.ProductIndex;
+
+/**
+ * Applies a delta feed of price and discount changes to existing product fragments. The feed is either CSV with the
+ * columns sku, price and discount, or xml with one product element per change holding sku, price and discount
+ * elements. Fragments are found by SKU in the {@link ProductIndex}. The index is updated asynchronously and may
+ * still hold older values, so a change is only skipped once the values this run wrote, or the fragment itself,
+ * confirm it. Only the two elements of changed products are written, in batched commits. An empty price or discount
+ * leaves the element as it is.
+ */
+@Designate(ocd = PriceDeltaImporter.Config.class)
+@Component(service = PriceDeltaImporter.class)
+public class PriceDeltaImporter {
+
+	@ObjectClassDefinition(name = "JYSK Price Delta Import",
+			description = "Applies price and discount changes keyed by SKU to the existing product fragments")
+	public static @interface Config {
+
+		@AttributeDefinition(name = "Commit Batch Size", description = "Number of changed products written before the changes are committed")
+		int batchSize() default 500;
+
+		@AttributeDefinition(name = "Product Element", description = "In xml feeds, the name of the repeating element that holds one change")
+		String productElement() default "product";
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PriceDeltaImporter.class);
+
+	private static final String SKU = "sku";
+	private static final String PRICE = "price";
+	private static final String DISCOUNT = "discount";
+	private static final String[] DEFAULT_COLUMNS = { SKU, PRICE, DISCOUNT };
+
+	private static final String DATA_MASTER = JcrConstants.JCR_CONTENT + "/data/master";
+
+	@Reference
+	ProductIndex productIndex;
+
+	private volatile int batchSize;
+	private volatile String productElement;
+
+	@Activate
+	@Modified
+	protected void activate(final Config config) {
+		batchSize = Math.max(1, config.batchSize());
+		productElement = config.productElement();
+	}
+
+	/**
+	 * Applies all changes of a feed, writing through the given resolver, so only fragments the resolver may modify
+	 * are changed.
+	 *
+	 * @param xml whether the feed is xml rather than CSV
+	 */
+	public Summary apply(ResourceResolver resourceResolver, InputStream inputStream, boolean xml) throws ProductImportException {
+		DeltaRun run = new DeltaRun(resourceResolver);
+		try {
+			if(xml) {
+				new ProductFeedReader(productElement).read(inputStream, (index, elements) -> {
+					run.apply(elements.get(SKU), elements.get(PRICE), elements.get(DISCOUNT));
+					return true;
+				});
+			} else {
+				readCsv(inputStream, run);
+			}
+		} catch (IOException | XMLStreamException e) {
+			resourceResolver.revert();
+			throw new ProductImportException("Failed reading price delta feed after " + (run.summary.getCount() + run.pending.size()) + " changes", e);
+		}
+		run.commit();
+		LOGGER.info("Applied price delta feed: {}", run.summary);
+		return run.summary;
+	}
+
+	// Reads sku,price,discount lines, the columns may be reordered by a header line naming them
+	private static void readCsv(InputStream inputStream, DeltaRun run) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String[] columns = DEFAULT_COLUMNS;
+		boolean firstLine = true;
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(StringUtils.isBlank(line) || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split(",", -1);
+			if(firstLine) {
+				firstLine = false;
+				if(SKU.equals(fields[0].trim().toLowerCase(Locale.ENGLISH))) {
+					columns = new String[fields.length];
+					for(int i = 0; i < fields.length; i++) {
+						columns[i] = fields[i].trim().toLowerCase(Locale.ENGLISH);
+					}
+					continue;
+				}
+			}
+			String sku = null;
+			String price = null;
+			String discount = null;
+			for(int i = 0; i < fields.length && i < columns.length; i++) {
+				if(SKU.equals(columns[i])) {
+					sku = fields[i];
+				} else if(PRICE.equals(columns[i])) {
+					price = fields[i];
+				} else if(DISCOUNT.equals(columns[i])) {
+					discount = fields[i];
+				}
+			}
+			run.apply(sku, price, discount);
+		}
+	}
+
+	// Function to parse a price or discount, null if the feed leaves it unchanged. NaN, infinite and negative values are rejected
+	private static Double parseValue(String value) {
+		if(StringUtils.isBlank(value)) {
+			return null;
+		}
+		double parsed = Double.parseDouble(value.trim());
+		if(Double.isNaN(parsed) || Double.isInfinite(parsed) || parsed < 0) {
+			throw new NumberFormatException("Not a valid price or discount: " + value.trim());
+		}
+		return parsed;
+	}
+
+	/**
+	 * The state of applying one feed: the changes written since the last commit and the counts so far.
+	 */
+	private final class DeltaRun {
+
+		private final ResourceResolver resourceResolver;
+		private final List<Change> pending = new ArrayList<>();
+		// The values of the fragments written by this run, a feed may change the same SKU more than once
+		private final Map<String, Values> written = new HashMap<>();
+		private final Summary summary = new Summary();
+
+		DeltaRun(ResourceResolver resourceResolver) {
+			this.resourceResolver = resourceResolver;
+		}
+
+		void apply(String sku, String priceValue, String discountValue) {
+			if(StringUtils.isBlank(sku)) {
+				summary.invalid++;
+				return;
+			}
+			Double price;
+			Double discount;
+			try {
+				price = parseValue(priceValue);
+				discount = parseValue(discountValue);
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Rejected price change of {}: {}", sku, e.getMessage());
+				summary.invalid++;
+				return;
+			}
+
+			ProductEntry product = productIndex.getBySku(sku.trim());
+			if(product == null) {
+				LOGGER.debug("Found no product with SKU {}", sku);
+				summary.unknown++;
+				return;
+			}
+			if(isUnchanged(product, price, discount)) {
+				summary.unchanged++;
+				return;
+			}
+
+			Change change = new Change(product.getPath(), price, discount);
+			if(!write(change)) {
+				summary.failed++;
+				return;
+			}
+			pending.add(change);
+			if(pending.size() >= batchSize) {
+				commit();
+			}
+		}
+
+		// A change the index shows as unchanged is checked against the values written by this run or the fragment
+		private boolean isUnchanged(ProductEntry product, Double price, Double discount) {
+			Values current = written.get(product.getPath());
+			if(current == null) {
+				if(!matches(price, product.getPrice()) || !matches(discount, product.getDiscount())) {
+					return false;
+				}
+				Resource masterResource = resourceResolver.getResource(product.getPath() + "/" + DATA_MASTER);
+				if(masterResource == null) {
+					return false;
+				}
+				current = new Values(masterResource.getValueMap());
+			}
+			return matches(price, current.price) && matches(discount, current.discount);
+		}
+
+		// Commits the pending changes. A conflicting commit is written again once on top of the current state
+		void commit() {
+			if(pending.isEmpty()) {
+				return;
+			}
+			try {
+				resourceResolver.commit();
+			} catch (PersistenceException e) {
+				LOGGER.warn("Failed committing {} price changes, retrying: {}", pending.size(), e.getMessage());
+				resourceResolver.revert();
+				resourceResolver.refresh();
+				if(!retry()) {
+					summary.failed += pending.size();
+					for(Change change : pending) {
+						written.remove(change.path);
+					}
+					pending.clear();
+					return;
+				}
+			}
+			summary.updated += pending.size();
+			pending.clear();
+		}
+
+		private boolean retry() {
+			for(Change change : pending) {
+				if(!write(change)) {
+					resourceResolver.revert();
+					return false;
+				}
+			}
+			try {
+				resourceResolver.commit();
+				return true;
+			} catch (PersistenceException e) {
+				LOGGER.error("Failed committing {} price changes", pending.size(), e);
+				resourceResolver.revert();
+				return false;
+			}
+		}
+
+		// Sets the elements on the master and marks the fragment modified, as editing it in the fragment editor does
+		private boolean write(Change change) {
+			Resource contentResource = resourceResolver.getResource(change.path + "/" + JcrConstants.JCR_CONTENT);
+			Resource masterResource = resourceResolver.getResource(change.path + "/" + DATA_MASTER);
+			ModifiableValueMap content = contentResource == null ? null : contentResource.adaptTo(ModifiableValueMap.class);
+			ModifiableValueMap master = masterResource == null ? null : masterResource.adaptTo(ModifiableValueMap.class);
+			if(content == null || master == null) {
+				LOGGER.warn("Failed writing price change of {}, the fragment is missing or not writable", change.path);
+				return false;
+			}
+			if(change.price != null) {
+				master.put(PRICE, change.price);
+			}
+			if(change.discount != null) {
+				master.put(DISCOUNT, change.discount);
+			}
+			content.put(JcrConstants.JCR_LASTMODIFIED, Calendar.getInstance());
+			content.put(JcrConstants.JCR_LAST_MODIFIED_BY, resourceResolver.getUserID());
+			written.put(change.path, new Values(master));
+			return true;
+		}
+	}
+
+	private static boolean matches(Double value, double current) {
+		return value == null || Double.compare(value, current) == 0;
+	}
+
+	private static final class Values {
+
+		private final double price;
+		private final double discount;
+
+		Values(ValueMap master) {
+			this.price = master.get(PRICE, Double.NaN);
+			this.discount = master.get(DISCOUNT, Double.NaN);
+		}
+	}
+
+	private static final class Change {
+
+		private final String path;
+		private final Double price;
+		private final Double discount;
+
+		Change(String path, Double price, Double discount) {
+			this.path = path;
+			this.price = price;
+			this.discount = discount;
+		}
+	}
+
+	/**
+	 * The outcome of applying one feed.
+	 */
+	public static final class Summary {
+
+		private int updated;
+		private int unchanged;
+		private int unknown;
+		private int invalid;
+		private int failed;
+
+		public int getUpdated() {
+			return updated;
+		}
+
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 * @return changes of SKUs that have no product fragment
+		 */
+		public int getUnknown() {
+			return unknown;
+		}
+
+		public int getInvalid() {
+			return invalid;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getCount() {
+			return updated + unchanged + unknown + invalid + failed;
+		}
+
+		@Override
+		public String toString() {
+			return updated + " updated, " + unchanged + " unchanged, " + unknown + " unknown SKUs, " + invalid + " invalid, " + failed + " failed";
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pull-parser over a product feed that holds many repeating product elements in a single file.
+ * Each product is handed to a {@link ProductHandler} as soon as its closing tag has been read,
+ * so only the product currently being read is held in memory.
+ */
+public class ProductFeedReader {
+
+	// XMLInputFactory is thread-safe once configured, so a single instance is shared by all work items
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+	/**
+	 * Callback invoked once per product element in document order.
+	 */
+	@FunctionalInterface
+	public interface ProductHandler {
+
+		/**
+		 * @param index zero based position of the product in the feed
+		 * @param elements the product's child element names mapped to their text content, elements tagged with
+		 * xml:lang are keyed as described by {@link LocalizedElements}
+		 * @return false to stop reading the feed
+		 */
+		boolean handleProduct(int index, Map<String, String> elements);
+	}
+
+	private final String productElementName;
+
+	public ProductFeedReader(String productElementName) {
+		this.productElementName = productElementName;
+	}
+
+	/**
+	 * Streams the feed and calls the handler for every product element found at any depth,
+	 * until the feed ends or the handler asks to stop.
+	 *
+	 * @return the number of products read
+	 */
+	public int read(InputStream inputStream, ProductHandler handler) throws XMLStreamException {
+		XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+		int index = 0;
+		try {
+			while(reader.hasNext()) {
+				if(reader.next() == XMLStreamConstants.START_ELEMENT && productElementName.equals(reader.getLocalName())) {
+					if(!handler.handleProduct(index, readProduct(reader))) {
+						return index;
+					}
+					index++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return index;
+	}
+
+	// Reads the direct children of the current product element until its matching end tag
+	private static Map<String, String> readProduct(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, String> elements = new HashMap<>();
+		StringBuilder text = new StringBuilder();
+		String currentElement = null;
+		String currentLang = null;
+		int depth = 1;
+
+		while(reader.hasNext()) {
+			switch(reader.next()) {
+			case XMLStreamConstants.START_ELEMENT: {
+				depth++;
+				if(depth == 2) {
+					currentElement = reader.getLocalName();
+					currentLang = reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+					text.setLength(0);
+				}
+				break;
+			}
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA: {
+				if(depth >= 2) {
+					text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+			}
+			case XMLStreamConstants.END_ELEMENT: {
+				if(depth == 2) {
+					elements.put(LocalizedElements.key(currentElement, currentLang), text.toString().trim());
+				}
+				depth--;
+				if(depth == 0) {
+					return elements;
+				}
+				break;
+			}
+			default: {
+				break;
+			}
+			}
+		}
+
+		return elements;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+}
@@ -0,0 +1,17 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+/**
+ * Signals that a product import could not be run at all, as opposed to single products failing to map.
+ */
+public class ProductImportException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public ProductImportException(String message) {
+		super(message);
+	}
+
+	public ProductImportException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
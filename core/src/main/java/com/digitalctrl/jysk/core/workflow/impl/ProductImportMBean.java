@@ -0,0 +1,27 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import javax.management.openmbean.TabularData;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("JYSK product import statistics")
+public interface ProductImportMBean {
+
+	@Description("Products written as new content fragments")
+	long getCreatedCount();
+
+	@Description("Existing content fragments updated with changed values")
+	long getUpdatedCount();
+
+	@Description("Products skipped because their content fragment was up to date")
+	long getUnchangedCount();
+
+	@Description("Products rejected because they don't match the content fragment model")
+	long getInvalidCount();
+
+	@Description("Products that failed to import")
+	long getFailedCount();
+
+	@Description("Latency of the import phases in milliseconds: rendition lookup, parse, mapping, fragment creation and commit")
+	TabularData getPhaseTimings();
+}
@@ -0,0 +1,103 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportMetrics.Phase;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter.UpsertResult;
+
+/**
+ * Exposes the {@link ProductImportMetrics} of the product importer in JMX.
+ */
+@Component(service = ProductImportMBean.class,
+		property = {
+				"jmx.objectname=com.digitalctrl.jysk:type=ProductImport"
+		})
+public class ProductImportMBeanImpl extends AnnotatedStandardMBean implements ProductImportMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductImportMBeanImpl.class);
+
+	private static final String[] PHASE_ITEMS = { "phase", "count", "mean", "p50", "p95", "p99", "max" };
+	private static final CompositeType PHASE_TYPE;
+	private static final TabularType PHASE_TABLE_TYPE;
+
+	static {
+		try {
+			OpenType<?>[] itemTypes = { SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE };
+			PHASE_TYPE = new CompositeType("phaseTiming", "Latency of an import phase in milliseconds", PHASE_ITEMS, PHASE_ITEMS, itemTypes);
+			PHASE_TABLE_TYPE = new TabularType("phaseTimings", "Latency of the import phases", PHASE_TYPE, new String[] { "phase" });
+		} catch (OpenDataException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Reference
+	ProductImporter productImporter;
+
+	public ProductImportMBeanImpl() throws NotCompliantMBeanException {
+		super(ProductImportMBean.class);
+	}
+
+	@Override
+	public long getCreatedCount() {
+		return productImporter.getMetrics().getCount(UpsertResult.CREATED);
+	}
+
+	@Override
+	public long getUpdatedCount() {
+		return productImporter.getMetrics().getCount(UpsertResult.UPDATED);
+	}
+
+	@Override
+	public long getUnchangedCount() {
+		return productImporter.getMetrics().getCount(UpsertResult.UNCHANGED);
+	}
+
+	@Override
+	public long getInvalidCount() {
+		return productImporter.getMetrics().getCount(UpsertResult.INVALID);
+	}
+
+	@Override
+	public long getFailedCount() {
+		return productImporter.getMetrics().getCount(UpsertResult.FAILED);
+	}
+
+	@Override
+	public TabularData getPhaseTimings() {
+		TabularDataSupport phaseTimings = new TabularDataSupport(PHASE_TABLE_TYPE);
+		for(Phase phase : Phase.values()) {
+			Timer timer = productImporter.getMetrics().getTimer(phase);
+			Snapshot snapshot = timer.getSnapshot();
+			Object[] values = { phase.getMetricName(), timer.getCount(), toMillis(snapshot.getMean()), toMillis(snapshot.getMedian()),
+					toMillis(snapshot.get95thPercentile()), toMillis(snapshot.get99thPercentile()), toMillis(snapshot.getMax()) };
+			try {
+				phaseTimings.put(new CompositeDataSupport(PHASE_TYPE, PHASE_ITEMS, values));
+			} catch (OpenDataException e) {
+				LOGGER.error("Failed reporting timings of import phase {}", phase.getMetricName(), e);
+			}
+		}
+		return phaseTimings;
+	}
+
+	private static double toMillis(double nanos) {
+		return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
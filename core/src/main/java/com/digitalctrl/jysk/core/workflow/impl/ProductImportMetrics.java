@@ -0,0 +1,89 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImporter.UpsertResult;
+
+/**
+ * Latency of every phase of a product import and counts of the products by outcome. The metrics always exist, so
+ * they can be read through the MBean whether or not a metric registry is around to publish them as well.
+ */
+public class ProductImportMetrics {
+
+	public enum Phase {
+		RENDITION_LOOKUP("renditionLookup"),
+		PARSE("parse"),
+		MAPPING("mapping"),
+		FRAGMENT_CREATION("fragmentCreation"),
+		COMMIT("commit");
+
+		private final String metricName;
+
+		Phase(String metricName) {
+			this.metricName = metricName;
+		}
+
+		public String getMetricName() {
+			return metricName;
+		}
+	}
+
+	private final Map<Phase, Timer> phaseTimers = new EnumMap<>(Phase.class);
+	private final Map<UpsertResult, Counter> productCounters = new EnumMap<>(UpsertResult.class);
+
+	public ProductImportMetrics() {
+		for(Phase phase : Phase.values()) {
+			phaseTimers.put(phase, new Timer());
+		}
+		for(UpsertResult result : UpsertResult.values()) {
+			productCounters.put(result, new Counter());
+		}
+	}
+
+	/**
+	 * Publishes the metrics in a registry, phase timers as {prefix}phase.{phase} and product counters as
+	 * {prefix}products.{outcome}.
+	 */
+	public void register(MetricRegistry metricRegistry, String prefix) {
+		for(Phase phase : Phase.values()) {
+			metricRegistry.register(prefix + "phase." + phase.getMetricName(), phaseTimers.get(phase));
+		}
+		for(UpsertResult result : UpsertResult.values()) {
+			metricRegistry.register(prefix + "products." + result.name().toLowerCase(), productCounters.get(result));
+		}
+	}
+
+	/**
+	 * Starts timing a phase, the phase is recorded when the returned context is closed.
+	 */
+	public Timer.Context time(Phase phase) {
+		return phaseTimers.get(phase).time();
+	}
+
+	public void record(Phase phase, long durationNanos) {
+		phaseTimers.get(phase).update(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void count(UpsertResult result) {
+		productCounters.get(result).inc();
+	}
+
+	public void count(UpsertResult result, long count) {
+		if(count > 0) {
+			productCounters.get(result).inc(count);
+		}
+	}
+
+	public Timer getTimer(Phase phase) {
+		return phaseTimers.get(phase);
+	}
+
+	public long getCount(UpsertResult result) {
+		return productCounters.get(result).getCount();
+	}
+}
@@ -0,0 +1,760 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.metatype.annotations.Designate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.adobe.cq.dam.cfm.ContentElement;
+import com.adobe.cq.dam.cfm.ContentFragment;
+import com.adobe.cq.dam.cfm.ContentFragmentException;
+import com.adobe.cq.dam.cfm.ContentVariation;
+import com.adobe.cq.dam.cfm.FragmentData;
+import com.adobe.cq.dam.cfm.FragmentTemplate;
+import com.adobe.cq.dam.cfm.VariationDef;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.commons.jcr.JcrUtil;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.digitalctrl.jysk.core.workflow.impl.ProductImportMetrics.Phase;
+
+/**
+ * Maps product xml to content fragments. It is shared by the XML Product Mapper workflow step and the other
+ * import entry points, and keeps the configuration of the workflow step so existing configurations still apply.
+ */
+@Component(service = ProductImporter.class, configurationPid = "com.digitalctrl.jysk.core.workflow.XMLProcessing", configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = XMLProcessingConfiguration.class)
+public class ProductImporter {
+
+	private static final String RENDITION_TEXT_XML_MIME_TYPE = "text/xml";
+	private static final String RENDITION_APPLICATION_XML_MIME_TYPE = "application/xml";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductImporter.class);
+
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+	// Fragment metadata property holding the hash of the values the fragment was last written from
+	private static final String PN_SOURCE_HASH = "sourceHash";
+
+	/**
+	 * Fragment metadata property holding the path of the asset the fragment was last written from.
+	 */
+	public static final String PN_SOURCE_PATH = "sourcePath";
+
+	private static final String METRIC_PREFIX = "jysk.xmlprocessing.";
+
+	// Node of a fragment that holds the values of the master variation, one property per element
+	private static final String DATA_MASTER = JcrConstants.JCR_CONTENT + "/data/master";
+
+	public enum UpsertResult { CREATED, UPDATED, UNCHANGED, INVALID, FAILED }
+
+	/**
+	 * Receives the products read from one xml source, already named and titled for their content fragment.
+	 */
+	@FunctionalInterface
+	public interface ProductSink {
+
+		/**
+		 * @return false to stop reading the source
+		 */
+		boolean accept(int index, String name, String title, Map<String, String> elements);
+	}
+
+	@Reference
+	ResourceResolverFactory resourceResolverFactory;
+
+	@Reference
+	FragmentMappingPlanCache mappingPlanCache;
+
+	@Reference
+	DamImageIndex damImageIndex;
+
+	@Reference(target = "(name=sling)", cardinality = ReferenceCardinality.OPTIONAL)
+	MetricRegistry metricRegistry;
+
+	private final ProductImportMetrics metrics = new ProductImportMetrics();
+
+	private ServiceResolverPool resolverPool;
+
+	private XMLProcessingConfiguration config;
+
+	@Activate
+	public void activate(XMLProcessingConfiguration config) {
+		this.config = config;
+		resolverPool = new ServiceResolverPool(resourceResolverFactory, "xmlProcessing", Math.max(1, config.resolverPoolSize()));
+		LOGGER.info("Created service resolver pool of size {} for {}", resolverPool.getSize(), config.contentFragmentTemplate());
+
+		if(metricRegistry != null) {
+			metricRegistry.register(METRIC_PREFIX + "resolverpool.inUse", (Gauge<Integer>) resolverPool::getInUse);
+			metricRegistry.register(METRIC_PREFIX + "resolverpool.waiting", (Gauge<Integer>) resolverPool::getWaiting);
+			metricRegistry.register(METRIC_PREFIX + "resolverpool.waitTime", resolverPool.getWaitTimer());
+			metrics.register(metricRegistry, METRIC_PREFIX);
+		}
+	}
+
+	@Deactivate
+	public void deactivate() {
+		if(metricRegistry != null) {
+			metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX));
+		}
+	}
+
+	/**
+	 * Imports the xml rendition of an asset next to it, either as a single product or as a streamed feed
+	 * depending on the configured mapping mode.
+	 *
+	 * @throws ProductImportException if the source can't be read or the changes can't be committed
+	 */
+	public void importAsset(Asset asset) throws ProductImportException {
+		Rendition xmlRendition;
+		try (Timer.Context renditionLookup = metrics.time(Phase.RENDITION_LOOKUP)) {
+			xmlRendition = getXmlRendition(asset);
+		}
+		if(xmlRendition == null) {
+			return;
+		}
+
+		// Every import writes through its own service resolver, so imports can run on parallel threads
+		try (ServiceResolverPool.Lease lease = acquireResolver()) {
+			ImportTarget target = openTarget(lease.getResourceResolver());
+			if(XMLProcessingConfiguration.MAPPING_MODE_STREAMING.equals(config.mappingMode())) {
+				importProductFeed(target, asset, xmlRendition);
+			} else {
+				importProduct(target, asset, xmlRendition);
+			}
+		}
+	}
+
+	/**
+	 * Leases a service resolver to write products with. The lease has to be closed once the writes are committed.
+	 */
+	public ServiceResolverPool.Lease acquireResolver() throws ProductImportException {
+		ServiceResolverPool.Lease lease;
+		try {
+			lease = resolverPool.acquire(config.resolverPoolTimeout(), TimeUnit.SECONDS);
+		} catch (LoginException e) {
+			throw new ProductImportException("Failed getting service resolver", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProductImportException("Interrupted waiting for a service resolver", e);
+		}
+		if(lease == null) {
+			throw new ProductImportException("Timed out waiting for a service resolver");
+		}
+		return lease;
+	}
+
+	/**
+	 * Resolves the configured content fragment template and its mapping plan for writes through the given resolver.
+	 */
+	public ImportTarget openTarget(ResourceResolver resourceResolver) throws ProductImportException {
+		Resource templateResource = resourceResolver.getResource(config.contentFragmentTemplate());
+		FragmentTemplate contentFragmentTemplate = templateResource == null ? null : templateResource.adaptTo(FragmentTemplate.class);
+		if(contentFragmentTemplate == null) {
+			throw new ProductImportException("Failed getting content fragment template from " + config.contentFragmentTemplate());
+		}
+		FragmentMappingPlan mappingPlan = mappingPlanCache.getPlan(config.contentFragmentTemplate(), contentFragmentTemplate, templateResource);
+		return new ImportTarget(resourceResolver, contentFragmentTemplate, mappingPlan);
+	}
+
+	/**
+	 * Reads the products of one xml source according to the configured mapping mode. A single product source is
+	 * named after the source, the products of a feed after their configured name element.
+	 *
+	 * @param sourceName the file name of the source without extension
+	 * @return the number of products read
+	 */
+	public int readProducts(String sourceName, InputStream inputStream, ProductSink sink) throws ProductImportException {
+		if(XMLProcessingConfiguration.MAPPING_MODE_STREAMING.equals(config.mappingMode())) {
+			ProductFeedReader feedReader = new ProductFeedReader(config.productElement());
+			// Parsing and handling the products interleave, so the parse time is the read time without the time spent in the sink
+			long readStart = System.nanoTime();
+			long[] sinkNanos = new long[1];
+			try {
+				return feedReader.read(inputStream, (index, elements) -> {
+					long sinkStart = System.nanoTime();
+					try {
+						String fragmentName = getFragmentName(sourceName, index, elements);
+						String title = elements.containsKey("title") ? elements.get("title") : splitCamelCase(fragmentName);
+						return sink.accept(index, fragmentName, title, elements);
+					} finally {
+						sinkNanos[0] += System.nanoTime() - sinkStart;
+					}
+				});
+			} catch (XMLStreamException e) {
+				throw new ProductImportException("Failed streaming product feed " + sourceName, e);
+			} finally {
+				metrics.record(Phase.PARSE, System.nanoTime() - readStart - sinkNanos[0]);
+			}
+		}
+
+		Map<String, String> elements;
+		try (Timer.Context parse = metrics.time(Phase.PARSE)) {
+			DocumentBuilder parser;
+			synchronized(DOCUMENT_BUILDER_FACTORY) {
+				parser = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+			}
+			Document dc = parser.parse(inputStream);
+			elements = getXmlElements(dc.getFirstChild());
+		} catch (IOException | SAXException | ParserConfigurationException e) {
+			throw new ProductImportException("Failed generating document object from xml source " + sourceName, e);
+		}
+
+		sink.accept(0, sourceName, splitCamelCase(sourceName), elements);
+		return 1;
+	}
+
+	/**
+	 * @return whether the workflow step should queue imports as jobs instead of importing on the workflow thread
+	 */
+	public boolean isAsyncExecution() {
+		return XMLProcessingConfiguration.EXECUTION_MODE_ASYNC.equals(config.executionMode());
+	}
+
+	/**
+	 * @return the number of products to write before committing
+	 */
+	public int getBatchSize() {
+		return Math.max(1, config.batchSize());
+	}
+
+	/**
+	 * Commits the pending writes of a target, recording the time it takes. The products written since the last
+	 * commit are counted as created or updated once the commit succeeded, a failed commit is reverted and counts
+	 * them as failed.
+	 */
+	public void commit(ImportTarget target) throws PersistenceException {
+		try (Timer.Context commit = metrics.time(Phase.COMMIT)) {
+			target.getResourceResolver().commit();
+		} catch (PersistenceException e) {
+			revert(target);
+			throw e;
+		}
+		metrics.count(UpsertResult.CREATED, target.pendingCreated);
+		metrics.count(UpsertResult.UPDATED, target.pendingUpdated);
+		target.clearPending();
+	}
+
+	/**
+	 * Discards the pending writes of a target, counting the products written since the last commit as failed.
+	 */
+	public void revert(ImportTarget target) {
+		target.getResourceResolver().revert();
+		metrics.count(UpsertResult.FAILED, target.pendingCreated + target.pendingUpdated);
+		target.clearPending();
+	}
+
+	public ProductImportMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Imports a single product source. A product that can't be read or written, or a failed commit, fails the import
+	// after its changes are reverted, so the caller can retry it
+	private void importProduct(ImportTarget target, Asset asset, Rendition xmlRendition) throws ProductImportException {
+		ResourceResolver resourceResolver = target.getResourceResolver();
+		Resource parentResource = resourceResolver.getResource(ResourceUtil.getParent(asset.getPath()));
+		String fragmentPath = parentResource.getPath() + "/" + getSourceName(asset.getName());
+
+		UpsertResult[] result = new UpsertResult[1];
+		InputStream xmlRenditionInputStream = xmlRendition.getStream();
+		try {
+			readProducts(getSourceName(asset.getName()), xmlRenditionInputStream, (index, name, title, elements) -> {
+				result[0] = upsertProduct(target, parentResource, asset.getPath(), name, title, elements);
+				return true;
+			});
+		} catch (ProductImportException e) {
+			revert(target);
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(xmlRenditionInputStream);
+		}
+
+		if(result[0] == UpsertResult.FAILED) {
+			revert(target);
+			throw new ProductImportException("Failed writing content fragment " + fragmentPath);
+		}
+		if(result[0] == UpsertResult.INVALID || result[0] == UpsertResult.UNCHANGED) {
+			return;
+		}
+		try {
+			commit(target);
+		} catch (PersistenceException e) {
+			throw new ProductImportException("Failed committing changes that wrote content fragment " + fragmentPath, e);
+		}
+	}
+
+	// Streams a multi-product feed and creates one content fragment per repeating product element. Changes are
+	// committed in batches together with a checkpoint on the asset, so a restarted import resumes after the last batch.
+	// A read or commit failure, or a product that can't be written, fails the import after the pending batch is
+	// reverted, with the batches committed before it kept
+	private void importProductFeed(ImportTarget target, Asset asset, Rendition xmlRendition) throws ProductImportException {
+		ResourceResolver resourceResolver = target.getResourceResolver();
+		Resource parentResource = resourceResolver.getResource(ResourceUtil.getParent(asset.getPath()));
+		Resource assetContentResource = resourceResolver.getResource(asset.getPath() + "/" + JcrConstants.JCR_CONTENT);
+
+		ImportCheckpoint checkpoint;
+		try (InputStream hashInputStream = xmlRendition.getStream()) {
+			checkpoint = ImportCheckpoint.read(assetContentResource, DigestUtils.md5Hex(hashInputStream));
+		} catch (IOException e) {
+			throw new ProductImportException("Failed hashing product feed " + asset.getPath(), e);
+		}
+		if(checkpoint.getResumeOffset() > 0) {
+			LOGGER.info("Resuming product feed {} after {} committed products", asset.getPath(), checkpoint.getResumeOffset());
+		}
+
+		int batchSize = getBatchSize();
+		AtomicReference<ProductImportException> failure = new AtomicReference<>();
+		InputStream xmlRenditionInputStream = xmlRendition.getStream();
+		int numProducts;
+		try {
+			numProducts = readProducts(getSourceName(asset.getName()), xmlRenditionInputStream, (index, name, title, elements) -> {
+				if(index < checkpoint.getResumeOffset()) {
+					return true;
+				}
+
+				// Committing the partial writes of a failed product would move the checkpoint past it
+				if(upsertProduct(target, parentResource, asset.getPath(), name, title, elements) == UpsertResult.FAILED) {
+					revert(target);
+					failure.set(new ProductImportException("Failed writing content fragment " + name + " of product feed " + asset.getPath()));
+					return false;
+				}
+
+				int numRead = index + 1;
+				if(numRead % batchSize == 0) {
+					try {
+						commitBatch(target, asset, checkpoint, numRead);
+					} catch (ProductImportException e) {
+						failure.set(e);
+						return false;
+					}
+				}
+				return true;
+			});
+		} catch (ProductImportException e) {
+			revert(target);
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(xmlRenditionInputStream);
+		}
+
+		if(failure.get() != null) {
+			throw failure.get();
+		}
+		if(numProducts > checkpoint.getResumeOffset() && numProducts % batchSize != 0) {
+			commitBatch(target, asset, checkpoint, numProducts);
+		}
+		LOGGER.info("Imported {} products from product feed {}", numProducts - checkpoint.getResumeOffset(), asset.getPath());
+	}
+
+	// Commits the pending fragments together with a checkpoint recording the number of products they cover.
+	// A batch without fragment changes is not committed, so re-importing an unchanged feed writes nothing
+	private void commitBatch(ImportTarget target, Asset asset, ImportCheckpoint checkpoint, int offset) throws ProductImportException {
+		if(!target.getResourceResolver().hasChanges()) {
+			return;
+		}
+		checkpoint.update(offset);
+		try {
+			commit(target);
+			LOGGER.debug("Committed product feed {} up to product {}", asset.getPath(), offset);
+		} catch (PersistenceException e) {
+			throw new ProductImportException("Failed committing product feed " + asset.getPath() + " up to product " + offset, e);
+		}
+	}
+
+	// Names a streamed product after its configured name element, falling back to its position in the feed
+	private String getFragmentName(String sourceName, int index, Map<String, String> elements) {
+		String name = elements.get(config.productNameElement());
+		if(StringUtils.isBlank(name)) {
+			name = sourceName + "-" + index;
+		}
+		return JcrUtil.createValidName(name);
+	}
+
+	static Map<String, String> getXmlElements(Node rootNode){
+		Map<String, String> xmlElements = new HashMap<>();
+
+		NodeList childNodes = rootNode.getChildNodes();
+		int numChildNodes = childNodes.getLength();
+		for(int i = 0; i < numChildNodes; i++) {
+			Node currNode = childNodes.item(i);
+			String nodeName = currNode.getNodeName();
+			String textContent = currNode.getTextContent();
+			String lang = currNode instanceof Element ? ((Element) currNode).getAttribute("xml:lang") : null;
+			xmlElements.put(LocalizedElements.key(nodeName, lang), textContent);
+			LOGGER.debug("Added node {} - {}", nodeName, textContent);
+		}
+
+		return xmlElements;
+	}
+
+	/**
+	 * Creates the fragment if it doesn't exist yet. An existing fragment is left untouched when the hash of the incoming
+	 * values matches the one it was last written from, otherwise only the elements whose value differs are written.
+	 * Values read from xml:lang tagged elements are written to the variation of their language in the same pass.
+	 * When validation is enabled, a product that doesn't match the model is rejected before anything is written.
+	 * The changes are left uncommitted, created and updated products are counted by the {@link #commit(ImportTarget)}
+	 * or {@link #revert(ImportTarget)} that ends them.
+	 *
+	 * @param sourcePath the asset the values were read from, recorded on the fragment
+	 */
+	public UpsertResult upsertProduct(ImportTarget target, Resource parentResource, String sourcePath, String name, String title, Map<String, String> dataElements) {
+		// Mapping is the time spent on a product apart from creating its fragment, recorded once per product
+		long start = System.nanoTime();
+		target.fragmentCreationNanos = 0;
+		UpsertResult result;
+		try {
+			result = writeProduct(target, parentResource, sourcePath, name, title, dataElements);
+		} catch (IllegalArgumentException e) {
+			// Without validation a value that doesn't convert to its element's type is only found while writing it
+			LOGGER.warn("Rejected invalid product {} below {}: {}", new Object[] { name, parentResource.getPath(), e.getMessage() });
+			result = UpsertResult.INVALID;
+		}
+		metrics.record(Phase.MAPPING, System.nanoTime() - start - target.fragmentCreationNanos);
+
+		if(result == UpsertResult.CREATED) {
+			target.pendingCreated++;
+		} else if(result == UpsertResult.UPDATED) {
+			target.pendingUpdated++;
+		} else {
+			metrics.count(result);
+		}
+		return result;
+	}
+
+	private UpsertResult writeProduct(ImportTarget target, Resource parentResource, String sourcePath, String name, String title, Map<String, String> dataElements) {
+		FragmentMappingPlan mappingPlan = target.getMappingPlan();
+		LocalizedElements localizedElements = LocalizedElements.split(resolveAssetReference(name, dataElements), config.masterLocale());
+		if(config.validateProducts()) {
+			List<String> errors = validate(mappingPlan, localizedElements);
+			if(!errors.isEmpty()) {
+				LOGGER.warn("Rejected invalid product {} below {}: {}", new Object[] { name, parentResource.getPath(), errors });
+				return UpsertResult.INVALID;
+			}
+		}
+		String sourceHash = localizedElements.hash(mappingPlan);
+
+		Resource existingResource = parentResource.getChild(name);
+		if(existingResource == null) {
+			ContentFragment productContentFragment = createContentFragment(target, parentResource, name, title, localizedElements.getMaster());
+			if(productContentFragment == null || !setVariationValues(mappingPlan, productContentFragment, localizedElements, false)
+					|| !setSourceMetadata(productContentFragment, sourceHash, sourcePath)) {
+				return UpsertResult.FAILED;
+			}
+			return UpsertResult.CREATED;
+		}
+
+		ContentFragment productContentFragment = existingResource.adaptTo(ContentFragment.class);
+		if(productContentFragment == null) {
+			LOGGER.error("Failed updating {}, the existing resource is not a content fragment", existingResource.getPath());
+			return UpsertResult.FAILED;
+		}
+		if(sourceHash.equals(productContentFragment.getMetaData().get(PN_SOURCE_HASH))) {
+			LOGGER.debug("Content fragment {} is up to date, skipping", existingResource.getPath());
+			return UpsertResult.UNCHANGED;
+		}
+
+		setElementValues(mappingPlan, productContentFragment, localizedElements.getMaster(), true);
+		if(!setVariationValues(mappingPlan, productContentFragment, localizedElements, true)
+				|| !setSourceMetadata(productContentFragment, sourceHash, sourcePath)) {
+			return UpsertResult.FAILED;
+		}
+		return UpsertResult.UPDATED;
+	}
+
+	// Collects the errors of the master and of every variation, a variation only holds the values it translates
+	private static List<String> validate(FragmentMappingPlan mappingPlan, LocalizedElements localizedElements) {
+		List<String> errors = mappingPlan.validate(localizedElements.getMaster(), true);
+		for(Map.Entry<String, Map<String, String>> variation : localizedElements.getVariations().entrySet()) {
+			List<String> variationErrors = mappingPlan.validate(variation.getValue(), false);
+			if(!variationErrors.isEmpty()) {
+				errors = new ArrayList<>(errors);
+				for(String variationError : variationErrors) {
+					errors.add(variation.getKey() + ": " + variationError);
+				}
+			}
+		}
+		return errors;
+	}
+
+	// Replaces an image file name, or a missing image, with the path of the DAM image named after it, after the
+	// product name element or after the fragment. The path is resolved before hashing, so a product whose image
+	// is uploaded later is updated by its next import
+	private Map<String, String> resolveAssetReference(String name, Map<String, String> dataElements) {
+		String assetReferenceElement = config.assetReferenceElement();
+		String assetReference = StringUtils.isEmpty(assetReferenceElement) ? null : dataElements.get(assetReferenceElement);
+		if(StringUtils.isEmpty(assetReferenceElement) || StringUtils.startsWith(assetReference, "/")) {
+			return dataElements;
+		}
+
+		String imagePath = damImageIndex.find(assetReference, dataElements.get(config.productNameElement()), name);
+		if(imagePath == null) {
+			LOGGER.debug("Found no DAM image for product {}", name);
+			return dataElements;
+		}
+		Map<String, String> resolvedElements = new HashMap<>(dataElements);
+		resolvedElements.put(assetReferenceElement, imagePath);
+		return resolvedElements;
+	}
+
+	private ContentFragment createContentFragment(ImportTarget target, Resource parentResource, String name, String title, Map<String, String> dataElements) {
+		FragmentTemplate contentFragmentTemplate = target.getContentFragmentTemplate();
+		ContentFragment productContentFragment;
+		long creationStart = System.nanoTime();
+		try {
+			productContentFragment = contentFragmentTemplate.createFragment(parentResource, name, title);
+		} catch (ContentFragmentException e) {
+			LOGGER.error("Failed creating content fragment from template {} at {}", new Object[] { contentFragmentTemplate.getTitle(), parentResource.getPath(), e });
+			return null;
+		} finally {
+			long creationNanos = System.nanoTime() - creationStart;
+			target.fragmentCreationNanos += creationNanos;
+			metrics.record(Phase.FRAGMENT_CREATION, creationNanos);
+		}
+
+		if(!writeMasterValues(target.getMappingPlan(), parentResource.getChild(name + "/" + DATA_MASTER), dataElements)) {
+			setElementValues(target.getMappingPlan(), productContentFragment, dataElements, false);
+		}
+		return productContentFragment;
+	}
+
+	/**
+	 * Writes the values of a new fragment to its master data node in one modification instead of one per element.
+	 * The values are stored as the content fragment API stores them, one property per element holding the value
+	 * converted to the element's type, and the content types the template set up are kept.
+	 *
+	 * @return false if the fragment has no master data node to write to, the values have to be set through the API then
+	 */
+	static boolean writeMasterValues(FragmentMappingPlan mappingPlan, Resource masterResource, Map<String, String> dataElements) {
+		ModifiableValueMap master = masterResource == null ? null : masterResource.adaptTo(ModifiableValueMap.class);
+		if(master == null) {
+			return false;
+		}
+
+		Map<String, Object> values = new HashMap<>();
+		for(FragmentMappingPlan.FieldMapping mapping : mappingPlan.getMappings()) {
+			String currValue = dataElements.get(mapping.getXmlElementName());
+			if(currValue == null) {
+				continue;
+			}
+			values.put(mapping.getElementName(), mapping.convert(currValue));
+		}
+		master.putAll(values);
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Set values of {} elements on {}", values.size(), masterResource.getPath());
+		}
+		return true;
+	}
+
+	static void setElementValues(FragmentMappingPlan mappingPlan, ContentFragment productContentFragment, Map<String, String> dataElements, boolean skipUnchanged) {
+		setElementValues(mappingPlan, productContentFragment, null, dataElements, skipUnchanged);
+	}
+
+	// Creates the variations of the languages that don't have one yet and writes their values
+	private boolean setVariationValues(FragmentMappingPlan mappingPlan, ContentFragment productContentFragment, LocalizedElements localizedElements, boolean skipUnchanged) {
+		if(localizedElements.getVariations().isEmpty()) {
+			return true;
+		}
+
+		try {
+			Set<String> existingVariations = new HashSet<>();
+			Iterator<VariationDef> variations = productContentFragment.listAllVariations();
+			while(variations.hasNext()) {
+				existingVariations.add(variations.next().getName());
+			}
+
+			for(Map.Entry<String, Map<String, String>> variation : localizedElements.getVariations().entrySet()) {
+				String variationName = variation.getKey();
+				boolean exists = existingVariations.contains(variationName);
+				if(!exists) {
+					productContentFragment.createVariation(variationName, LocalizedElements.getVariationTitle(variationName), "xml:lang " + variationName);
+				}
+				setElementValues(mappingPlan, productContentFragment, variationName, variation.getValue(), skipUnchanged && exists);
+			}
+			return true;
+		} catch (ContentFragmentException e) {
+			LOGGER.error("Failed creating language variations on content fragment {}", productContentFragment.getName(), e);
+			return false;
+		}
+	}
+
+	// Sets the values on the master, or on the named variation of every element
+	static void setElementValues(FragmentMappingPlan mappingPlan, ContentFragment productContentFragment, String variationName, Map<String, String> dataElements, boolean skipUnchanged) {
+		// Iterate through the mapping plan of the fragment's model, find the value from the data source for each element and set it
+		for(FragmentMappingPlan.FieldMapping mapping : mappingPlan.getMappings()) {
+			// Get value corresponding to current content fragment element name
+			String currValue = dataElements.get(mapping.getXmlElementName());
+			if(currValue == null) {
+				LOGGER.debug("Didn't get a value for {}, ignoring", mapping.getElementName());
+				continue;
+			}
+
+			ContentElement contentElement = productContentFragment.getElement(mapping.getElementName());
+			if(contentElement == null) {
+				LOGGER.debug("Content fragment {} has no element {}, ignoring", productContentFragment.getName(), mapping.getElementName());
+				continue;
+			}
+
+			// Set value on content element in content fragment
+			try {
+				ContentVariation contentVariation = variationName == null ? null : contentElement.getVariation(variationName);
+				if(variationName != null && contentVariation == null) {
+					LOGGER.debug("Content element {} has no variation {}, ignoring", mapping.getElementName(), variationName);
+					continue;
+				}
+
+				Object convertedValue = mapping.convert(currValue);
+				FragmentData contentElementValue = contentVariation == null ? contentElement.getValue() : contentVariation.getValue();
+				if(skipUnchanged && Objects.equals(convertedValue, contentElementValue.getValue())) {
+					continue;
+				}
+
+				contentElementValue.setValue(convertedValue);
+				if(contentVariation == null) {
+					contentElement.setValue(contentElementValue);
+				} else {
+					contentVariation.setValue(contentElementValue);
+				}
+
+				if(LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Set value {} as {} on content element {}", new Object[] { convertedValue, mapping.getDataType(), mapping.getElementName() });
+				}
+			} catch (ContentFragmentException e) {
+				LOGGER.error("Failed setting element {} on content element of type {}", new Object[] { currValue, contentElement.getContentType(), e });
+			}
+		}
+	}
+
+	private boolean setSourceMetadata(ContentFragment productContentFragment, String sourceHash, String sourcePath) {
+		try {
+			productContentFragment.setMetaData(PN_SOURCE_HASH, sourceHash);
+			if(sourcePath != null) {
+				productContentFragment.setMetaData(PN_SOURCE_PATH, sourcePath);
+			}
+			return true;
+		} catch (ContentFragmentException e) {
+			LOGGER.error("Failed storing source metadata on content fragment {}", productContentFragment.getName(), e);
+			return false;
+		}
+	}
+
+	// Function to strip the extension from a file name to use it as the content fragment name
+	public static String getSourceName(String fileName) {
+		return fileName.split("\\.")[0];
+	}
+
+	// Function to split camel case from file name to set as content fragment title
+	static String splitCamelCase(String s) {
+		String splitString = s.replaceAll(String.format("%s|%s|%s", "(?<=[A-Z])(?=[A-Z][a-z])", "(?<=[^A-Z])(?=[A-Z])",
+				"(?<=[A-Za-z])(?=[^A-Za-z])"), " ");
+		return splitString.substring(0, 1).toUpperCase() + splitString.substring(1);
+	}
+
+	public static Rendition getXmlRendition(Asset asset) {
+
+		List<Rendition> renditions = asset.getRenditions();
+		Rendition xmlRendition = null;
+		for (Rendition rendition : renditions) {
+			if(isXmlMimeType(rendition.getMimeType())) {
+				xmlRendition = rendition;
+				break;
+			}
+		}
+
+		if(xmlRendition == null) {
+			LOGGER.warn("Failed getting a valid xml rendition from asset {}", asset.getPath());
+		}
+
+		return xmlRendition;
+	}
+
+	public static boolean isXmlMimeType(String mimeType) {
+		return RENDITION_APPLICATION_XML_MIME_TYPE.equals(mimeType) || RENDITION_TEXT_XML_MIME_TYPE.equals(mimeType);
+	}
+
+	/**
+	 * The resolver, template and mapping plan that products are written with, and the products written since its
+	 * last commit. Like its resolver, a target must only be used by one thread.
+	 */
+	public static class ImportTarget {
+
+		private final ResourceResolver resourceResolver;
+		private final FragmentTemplate contentFragmentTemplate;
+		private final FragmentMappingPlan mappingPlan;
+
+		private int pendingCreated;
+		private int pendingUpdated;
+		// Time the product being written spent creating its fragment
+		private long fragmentCreationNanos;
+
+		ImportTarget(ResourceResolver resourceResolver, FragmentTemplate contentFragmentTemplate, FragmentMappingPlan mappingPlan) {
+			this.resourceResolver = resourceResolver;
+			this.contentFragmentTemplate = contentFragmentTemplate;
+			this.mappingPlan = mappingPlan;
+		}
+
+		public ResourceResolver getResourceResolver() {
+			return resourceResolver;
+		}
+
+		public FragmentTemplate getContentFragmentTemplate() {
+			return contentFragmentTemplate;
+		}
+
+		public FragmentMappingPlan getMappingPlan() {
+			return mappingPlan;
+		}
+
+		/**
+		 * @return the number of created or updated products waiting for the next commit
+		 */
+		public int getPendingCount() {
+			return pendingCreated + pendingUpdated;
+		}
+
+		private void clearPending() {
+			pendingCreated = 0;
+			pendingUpdated = 0;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.digitalctrl.jysk.core.workflow.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Bounded supply of service resource resolvers. A resource resolver is not thread-safe, so every lease
+ * gets its own resolver that is closed again when the lease is released. The pool only bounds how many
+ * of them are open at the same time, which keeps concurrent workflow threads from piling up sessions.
+ */
+public class ServiceResolverPool {
+
+	private final ResourceResolverFactory resourceResolverFactory;
+	private final Map<String, Object> authenticationInfo;
+	private final int size;
+	private final Semaphore permits;
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final Timer waitTimer = new Timer();
+
+	public ServiceResolverPool(ResourceResolverFactory resourceResolverFactory, String subService, int size) {
+		this.resourceResolverFactory = resourceResolverFactory;
+		this.authenticationInfo = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, subService);
+		this.size = size;
+		this.permits = new Semaphore(size, true);
+	}
+
+	/**
+	 * Waits for a free slot and opens a service resolver for it.
+	 *
+	 * @return the lease, or null if no slot became free within the timeout
+	 */
+	public Lease acquire(long timeout, TimeUnit unit) throws LoginException, InterruptedException {
+		Timer.Context waitContext = waitTimer.time();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(timeout, unit);
+		} finally {
+			waitContext.stop();
+		}
+		if(!acquired) {
+			return null;
+		}
+
+		try {
+			ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(authenticationInfo);
+			inUse.incrementAndGet();
+			return new Lease(resourceResolver);
+		} catch (LoginException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	public int getWaiting() {
+		return permits.getQueueLength();
+	}
+
+	/**
+	 * Time spent waiting for a free slot, including waits that timed out.
+	 */
+	public Timer getWaitTimer() {
+		return waitTimer;
+	}
+
+	/**
+	 * A resolver held by one execution. Closing the lease closes the resolver, discarding any uncommitted
+	 * changes, and frees the slot.
+	 */
+	public class Lease implements AutoCloseable {
+
+		private final ResourceResolver resourceResolver;
+
+		private Lease(ResourceResolver resourceResolver) {
+			this.resourceResolver = resourceResolver;
+		}
+
+		public ResourceResolver getResourceResolver() {
+			return resourceResolver;
+		}
+
+		@Override
+		public void close() {
+			try {
+				resourceResolver.close();
+			} finally {
+				inUse.decrementAndGet();
+				permits.release();
+			}
+		}
+	}
+}
@@ -2,10 +2,51 @@ package com.digitalctrl.jysk.core.workflow.impl;
 
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 
 @ObjectClassDefinition(name = "XML Product Processing Configuration", description = "Configuration to pass in template and location for XML Product Processing")
 public @interface XMLProcessingConfiguration {
-	
+
+	String MAPPING_MODE_DOM = "dom";
+	String MAPPING_MODE_STREAMING = "streaming";
+
+	String EXECUTION_MODE_SYNC = "sync";
+	String EXECUTION_MODE_ASYNC = "async";
+
 	@AttributeDefinition(name = "ContentFragment Template", description = "The path to the content fragment template to use to create product content fragments from xml entries")
 	String contentFragmentTemplate();
-}
\ No newline at end of file
+
+	@AttributeDefinition(name = "Mapping Mode", description = "How the xml rendition is read: a single product per file, or a streamed feed of repeating product elements", options = {
+			@Option(label = "Single product per file (DOM)", value = MAPPING_MODE_DOM),
+			@Option(label = "Multi-product feed (streaming)", value = MAPPING_MODE_STREAMING) })
+	String mappingMode() default MAPPING_MODE_DOM;
+
+	@AttributeDefinition(name = "Execution Mode", description = "Whether the XML Product Mapper step imports on the workflow thread, or queues the import as a job on the JYSK Product Import queue and completes immediately", options = {
+			@Option(label = "On the workflow thread (sync)", value = EXECUTION_MODE_SYNC),
+			@Option(label = "Queued as a job (async)", value = EXECUTION_MODE_ASYNC) })
+	String executionMode() default EXECUTION_MODE_SYNC;
+
+	@AttributeDefinition(name = "Validate Products", description = "Whether products are checked against the model while they are read: required elements need a value and values have to match their element's type. Invalid products are rejected with all their errors before anything is written")
+	boolean validateProducts() default true;
+
+	@AttributeDefinition(name = "Asset Reference Element", description = "Element holding the product image. A value that isn't a DAM path, or a missing value, is resolved to the DAM image named after the value, the product name element or the fragment name")
+	String assetReferenceElement() default "assetReference";
+
+	@AttributeDefinition(name = "Master Locale", description = "Language of the fragment master. Elements tagged with this xml:lang fill the master like untagged ones, elements tagged with another language fill the variation named after it")
+	String masterLocale() default "en";
+
+	@AttributeDefinition(name = "Product Element", description = "In streaming mode, the name of the repeating xml element that holds one product")
+	String productElement() default "product";
+
+	@AttributeDefinition(name = "Product Name Element", description = "In streaming mode, the product child element used to name each content fragment")
+	String productNameElement() default "sku";
+
+	@AttributeDefinition(name = "Commit Batch Size", description = "In streaming mode, the number of content fragments created before the changes and an import checkpoint are committed")
+	int batchSize() default 200;
+
+	@AttributeDefinition(name = "Resolver Pool Size", description = "The maximum number of workflow executions that write through their own service resolver at the same time")
+	int resolverPoolSize() default 4;
+
+	@AttributeDefinition(name = "Resolver Pool Timeout", description = "Seconds an execution waits for a free service resolver before the workflow step fails and is retried")
+	long resolverPoolTimeout() default 60;
+}